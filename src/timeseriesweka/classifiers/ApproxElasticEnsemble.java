@@ -83,15 +83,14 @@ public class ApproxElasticEnsemble extends FastElasticEnsemble {
             this.derTrainCache = new SequenceStatsCache(derTrain, derTrain.numAttributes() - 1);
         }
 
-        trainResults.buildTime = 0;
-        double[] cvAccAndPreds;
-        for (int c = 0; c < classifiers.length; c++) {
-            System.out.println("[ApproxEE] Building " + classifiers[c].getClassifierIdentifier());
+        trainConstituents(c -> {
+            printProgress("[ApproxEE] Building " + classifiers[c].getClassifierIdentifier());
+            final double[] cvAccAndPreds;
             if (isDerivative(classifiersToUse[c])) {
-                classifiers[c].setTrainCache(derTrainCache);
+                classifiers[c].setTrainCache(constituentCache(derTrainCache));
                 cvAccAndPreds = classifiers[c].loocv(derTrain);
             } else {
-                classifiers[c].setTrainCache(trainCache);
+                classifiers[c].setTrainCache(constituentCache(trainCache));
                 cvAccAndPreds = classifiers[c].loocv(train);
             }
 
@@ -99,8 +98,7 @@ public class ApproxElasticEnsemble extends FastElasticEnsemble {
             cvAccs[c] = cvAccAndPreds[0];
             cvTime[c] = classifiers[c].getCvTime();
             System.arraycopy(cvAccAndPreds, 1, this.cvPreds[c], 0, cvAccAndPreds.length - 1);
-            trainResults.buildTime += cvTime[c];
-        }
+        });
     }
 
     @Override
@@ -134,15 +132,14 @@ public class ApproxElasticEnsemble extends FastElasticEnsemble {
             this.derTrainCache = new SequenceStatsCache(derTrain, derTrain.numAttributes() - 1);
         }
 
-        trainResults.buildTime = 0;
-        double[] cvAccAndPreds;
-        for (int c = 0; c < classifiers.length; c++) {
-            System.out.println("[ApproxEE] Building " + classifiers[c].getClassifierIdentifier());
+        trainConstituents(c -> {
+            printProgress("[ApproxEE] Building " + classifiers[c].getClassifierIdentifier());
+            final double[] cvAccAndPreds;
             if (isDerivative(classifiersToUse[c])) {
-                classifiers[c].setTrainCache(derTrainCache);
+                classifiers[c].setTrainCache(constituentCache(derTrainCache));
                 cvAccAndPreds = classifiers[c].loocvEstimate(derTrain, timeLimit, instanceLimit);
             } else {
-                classifiers[c].setTrainCache(trainCache);
+                classifiers[c].setTrainCache(constituentCache(trainCache));
                 cvAccAndPreds = classifiers[c].loocvEstimate(train, timeLimit, instanceLimit);
             }
 
@@ -150,8 +147,7 @@ public class ApproxElasticEnsemble extends FastElasticEnsemble {
             cvAccs[c] = cvAccAndPreds[0];
             cvTime[c] = classifiers[c].getCvTime();
             System.arraycopy(cvAccAndPreds, 1, this.cvPreds[c], 0, cvAccAndPreds.length - 1);
-            trainResults.buildTime += cvTime[c];
-        }
+        });
     }
 
     @Override
@@ -11,18 +11,21 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.classifiers;
 
+import timeseriesweka.datasets.TimeSeriesDataset;
 import timeseriesweka.elasticDistances.DTW;
 import timeseriesweka.elasticDistances.DistanceResults;
+import timeseriesweka.elasticDistances.DistanceWorkspace;
 import timeseriesweka.elasticDistances.LazyAssessNN;
-import timeseriesweka.fastWWS.PotentialNN;
+import timeseriesweka.elasticDistances.LazyAssessNNPool;
+import timeseriesweka.fastWWS.NNTable;
 import timeseriesweka.fastWWS.SequenceStatsCache;
+import timeseriesweka.lowerBounds.LbEnhanced;
+import timeseriesweka.lowerBounds.LbImproved;
 import timeseriesweka.lowerBounds.LbKeogh;
+import timeseriesweka.lowerBounds.LbKim;
 import weka.core.Instance;
 import weka.core.Instances;
 
-import java.util.ArrayList;
-import java.util.Collections;
-
 /**
  * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
  *
@@ -52,6 +55,7 @@ public class DTW1NN extends OneNearestNeighbour {
 
     public DTW1NN(Instances train) {
         this.train = train;
+        this.trainData = new TimeSeriesDataset(train);
         U = new double[train.numAttributes() - 1];
         L = new double[train.numAttributes() - 1];
         this.r = 1;
@@ -74,100 +78,88 @@ public class DTW1NN extends OneNearestNeighbour {
             System.err.println("Set is too small: " + train.numInstances() + " sequence. At least 2 sequences needed.");
         }
 
-        nns = new PotentialNN[nParams][train.numInstances()];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < train.numInstances(); ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, train.numInstances());
 
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is the reference)
-        for (int current = 1; current < train.numInstances(); ++current) {
-            Instance sCurrent = train.instance(current);
-
-            challengers.clear();
+        for (int i = 1; i < train.numInstances(); ++i) {
+            final int current = i;
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.set(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.set(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = nParams - 1; paramId > -1; --paramId) {
+            for (int p = nParams - 1; p > -1; --p) {
+                final int paramId = p;
                 setParamsFromParamId(train, paramId);
                 int win = getWindowSize2(maxWindow);
-                PotentialNN currPNN = nns[paramId][current];
 
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have the NN for sure, but we still have to check if current is the new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatDTW(toBeat, win);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(win);
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have the NN yet.
                     // Sort the challengers so we have the better chance to organize the good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatDTW(toBeat, win);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(win);
-                            currPNN.set(previous, r, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, r, d, NNTable.Status.BC);
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatDTW(toBeat, win);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatDTW(toBeat, win);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(win);
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    int r = currPNN.r;
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
+                    int r = nns.getR(paramId, current);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
                     int winEnd = getParamIdFromWindow(r, train.numAttributes() - 1);
                     for (int tmp = paramId; tmp >= winEnd; --tmp) {
-                        nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+                        nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                     }
                 }
             }
@@ -179,100 +171,88 @@ public class DTW1NN extends OneNearestNeighbour {
             System.err.println("Set is too small: " + n + " sequence. At least 2 sequences needed.");
         }
 
-        nns = new PotentialNN[nParams][n];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < n; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, n);
 
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[n];
-        for (int i = 0; i < n; ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(n);
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, n);
 
         // Iteration for all TS, starting with the second one (first is the reference)
-        for (int current = 1; current < n; ++current) {
-            Instance sCurrent = train.instance(current);
-
-            challengers.clear();
+        for (int i = 1; i < n; ++i) {
+            final int current = i;
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.set(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.set(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = nParams - 1; paramId > -1; --paramId) {
+            for (int p = nParams - 1; p > -1; --p) {
+                final int paramId = p;
                 setParamsFromParamId(train, paramId);
                 int win = getWindowSize2(maxWindow);
-                PotentialNN currPNN = nns[paramId][current];
 
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have the NN for sure, but we still have to check if current is the new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatDTW(toBeat, win);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(win);
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have the NN yet.
                     // Sort the challengers so we have the better chance to organize the good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatDTW(toBeat, win);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(win);
-                            currPNN.set(previous, r, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, r, d, NNTable.Status.BC);
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatDTW(toBeat, win);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatDTW(toBeat, win);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(win);
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    int r = currPNN.r;
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
+                    int r = nns.getR(paramId, current);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
                     int winEnd = getParamIdFromWindow(r, train.numAttributes() - 1);
                     for (int tmp = paramId; tmp >= winEnd; --tmp) {
-                        nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+                        nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                     }
                 }
             }
@@ -290,81 +270,68 @@ public class DTW1NN extends OneNearestNeighbour {
             System.err.println("Set is too small: " + train.numInstances() + " sequence. At least 2 sequences needed.");
         }
 
-        nns = new PotentialNN[nParams][nSamples];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < nSamples; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, nSamples);
 
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is the reference)
         for (int current = 0; current < nSamples; ++current) {
-            Instance sCurrent = train.instance(current);
-
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < train.numInstances(); ++previous) {
                 if (previous == current) continue;
 
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.set(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.set(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
             for (int paramId = nParams - 1; paramId > -1; --paramId) {
                 setParamsFromParamId(train, paramId);
                 int win = getWindowSize2(maxWindow);
-                PotentialNN currPNN = nns[paramId][current];
 
-                Collections.sort(challengers);
+                lazyAssessNNS.sort();
                 boolean newNN = false;
-                for (LazyAssessNN challenger : challengers) {
+                for (LazyAssessNN challenger : lazyAssessNNS) {
                     // --- Get the data
                     int previous = challenger.indexQuery;
                     if (previous == current) previous = challenger.indexReference;
-                    if (previous == currPNN.index) continue;
+                    if (previous == nns.getIndex(paramId, current)) continue;
 
                     // --- First we want to beat the current best candidate:
-                    double toBeat = currPNN.distance;
+                    double toBeat = nns.getDistance(paramId, current);
                     LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatDTW(toBeat, win);
                     // --- Check the result
                     if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                         int r = challenger.getMinWindowValidityForFullDistance();
                         double d = challenger.getDistance(win);
-                        currPNN.set(previous, r, d, PotentialNN.Status.BC);
+                        nns.set(paramId, current, previous, r, d, NNTable.Status.BC);
                         newNN = true;
                     }
 
                     if (previous < nSamples) {
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- Now check for previous NN
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
+                        toBeat = nns.getDistance(paramId, previous);
+                        challenger = lazyAssessNNS.get(previous);
                         rrt = challenger.tryToBeatDTW(toBeat, win);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(win);
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                         }
                     }
                 }
                 if (newNN) {
-                    int r = currPNN.r;
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
+                    int r = nns.getR(paramId, current);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
                     int winEnd = getParamIdFromWindow(r, train.numAttributes() - 1);
                     for (int tmp = paramId; tmp >= winEnd; --tmp) {
-                        nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+                        nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                     }
                 }
             }
@@ -403,6 +370,14 @@ public class DTW1NN extends OneNearestNeighbour {
         return DTW.distance(first, second, w);
     }
 
+    public final double distance(double[] query, double[] data, int offset, int length, double cutOffValue) {
+        return DTW.distance(query, 0, query.length, data, offset, length, w, cutOffValue, DistanceWorkspace.local());
+    }
+
+    public final double distance(double[] query, double[] data, int offset, int length) {
+        return DTW.distance(query, 0, query.length, data, offset, length, w, DistanceWorkspace.local());
+    }
+
     private DistanceResults distanceExt(Instance first, Instance second) {
         return DTW.distanceExt(first, second, w);
     }
@@ -424,72 +399,36 @@ public class DTW1NN extends OneNearestNeighbour {
 
     @Override
     public double classifyInstance(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-
-        double thisDist;
-
-        for (int j = 0; j < this.train.numInstances(); j++) {
-            Instance i = train.instance(j);
-            thisDist = distance(instance, i, bsfDistance);
-            if (thisDist < bsfDistance) {
-                bsfDistance = thisDist;
-                classCounts = new int[train.numClasses()];
-                classCounts[(int) i.classValue()]++;
-            } else if (thisDist == bsfDistance) {
-                classCounts[(int) i.classValue()]++;
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        return search((j, cutOffValue) -> distance(query, data, trainData.offset(j), length, cutOffValue));
     }
 
     @Override
     public double classifyWithLowerBound(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-        double[] U = new double[instance.numAttributes() - 1];
-        double[] L = new double[instance.numAttributes() - 1];
-
-        double thisDist, lbDist;
-        LbKeogh.fillUL(instance, w, U, L);
-
-        for (int j = 0; j < this.train.numInstances(); j++) {
-            Instance i = train.instance(j);
-            lbDist = LbKeogh.distance(i, U, L, bsfDistance);
-            if (lbDist < bsfDistance) {
-                thisDist = distance(instance, i, bsfDistance);
-                if (thisDist < bsfDistance) {
-                    bsfDistance = thisDist;
-                    classCounts = new int[train.numClasses()];
-                    classCounts[(int) i.classValue()]++;
-                } else if (thisDist == bsfDistance) {
-                    classCounts[(int) i.classValue()]++;
-                }
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        final double[] U = queryBuffer(0, query.length);
+        final double[] L = queryBuffer(1, query.length);
+        final double[] H = queryBuffer(2, query.length);
+        final double[] UH = queryBuffer(3, query.length);
+        final double[] LH = queryBuffer(4, query.length);
+        LbKeogh.fillUL(query, 0, query.length, w, U, L);
+
+        return searchWithLowerBound(
+                j -> LbKim.distance(data, trainData.offset(j), query, 0, length, LbKim.Cost.Squared, 1, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY),
+                (j, cutOffValue) -> {
+                    final int offset = trainData.offset(j);
+                    // the bounds abandon at their cutoff, so they get the next value up to keep the ties
+                    final double lbCutOff = Math.nextUp(cutOffValue);
+                    double lbDist = LbEnhanced.distance(data, offset, query, 0, length, U, L, w, LbEnhanced.defaultBands, lbCutOff);
+                    if (lbDist <= cutOffValue)
+                        lbDist = LbImproved.distance(data, offset, query, 0, length, U, L, w, H, UH, LH, lbCutOff);
+                    if (lbDist > cutOffValue) return Double.POSITIVE_INFINITY;
+                    return distance(query, data, offset, length, cutOffValue);
+                });
     }
 
     @Override
@@ -11,6 +11,7 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.classifiers;
 
+import timeseriesweka.datasets.TimeSeriesDataset;
 import timeseriesweka.fastWWS.SequenceStatsCache;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -66,13 +67,40 @@ public class ED1NN extends OneNearestNeighbour {
         return sum;
     }
 
+    public final double distance(double[] query, double[] data, int offset, int length) {
+        double sum = 0;
+        for (int a = 0; a < length; a++) {
+            sum += (query[a] - data[offset + a]) * (query[a] - data[offset + a]);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Euclidean distance abandoned as soon as the partial sum is above the cutoff
+     *
+     * @return distance, or POSITIVE_INFINITY if it is greater than cutOffValue
+     */
+    public final double distance(double[] query, double[] data, int offset, int length, double cutOffValue) {
+        double sum = 0;
+        for (int a = 0; a < length; a++) {
+            sum += (query[a] - data[offset + a]) * (query[a] - data[offset + a]);
+            if (sum > cutOffValue) return Double.POSITIVE_INFINITY;
+        }
+
+        return sum;
+    }
+
     @Override
     public void setParamsFromParamId(Instances train, int paramId) {
     }
 
     @Override
     public double classifyWithLowerBound(Instance instance) {
-        return classifyInstance(instance);
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        return search((j, cutOffValue) -> distance(query, data, trainData.offset(j), length, cutOffValue));
     }
 
     @Override
@@ -12,9 +12,12 @@
 package timeseriesweka.classifiers;
 
 import development.DataSets;
+import timeseriesweka.datasets.TimeSeriesDataset;
+import timeseriesweka.elasticDistances.DistanceWorkspace;
 import timeseriesweka.elasticDistances.ERP;
 import timeseriesweka.elasticDistances.LazyAssessNN;
-import timeseriesweka.fastWWS.PotentialNN;
+import timeseriesweka.elasticDistances.LazyAssessNNPool;
+import timeseriesweka.fastWWS.NNTable;
 import timeseriesweka.fastWWS.SequenceStatsCache;
 import timeseriesweka.lowerBounds.LbErp;
 import utilities.ClassifierTools;
@@ -74,107 +77,92 @@ public class ERP1NN extends OneNearestNeighbour {
             System.err.println("Set is to small: " + train.numInstances() + " sequence. At least 2 sequences needed.");
         }
 
-        nns = new PotentialNN[nParams][train.numInstances()];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < train.numInstances(); ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, train.numInstances());
 
         // Vector of LazyUCR lbKeogh, propagating bound info "horizontally"
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
         // "Challengers" that compete with each other to be the NN of query
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is the reference)
-        for (int current = 1; current < train.numInstances(); ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
+        for (int i = 1; i < train.numInstances(); ++i) {
+            final int current = i;
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = nParams - 1; paramId > -1; --paramId) {
+            for (int p = nParams - 1; p > -1; --p) {
+                final int paramId = p;
                 setParamsFromParamId(train, paramId);
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have the NN for sure, but we still have to check if current is the new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatERP(toBeat, g, bandSize);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(ERP.getWindowSize(bandSize, train.numAttributes() - 1));
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have the NN yet.
                     // Sort the challengers so we have the better chance to organize the good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatERP(toBeat, g, bandSize);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(ERP.getWindowSize(bandSize, train.numAttributes() - 1));
-                            currPNN.set(previous, r, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, r, d, NNTable.Status.BC);
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatERP(toBeat, g, bandSize);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatERP(toBeat, g, bandSize);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(ERP.getWindowSize(bandSize, train.numAttributes() - 1));
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    int r = currPNN.r;
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
+                    int r = nns.getR(paramId, current);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
                     int w = ERP.getWindowSize(bandSize, train.numAttributes() - 1);
                     int tmp = paramId;
                     double prevG = g;
                     while (tmp > 0 && paramId % 10 > 0 && prevG == g && w >= r) {
-                        nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+                        nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                         tmp--;
 
                         this.setParamsFromParamId(train, tmp);
@@ -191,108 +179,93 @@ public class ERP1NN extends OneNearestNeighbour {
             System.err.println("Set is to small: " + n + " sequence. At least 2 sequences needed.");
         }
 
-        nns = new PotentialNN[nParams][n];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < n; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, n);
 
         // Vector of LazyUCR lbKeogh, propagating bound info "horizontally"
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[n];
-        for (int i = 0; i < n; ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, n);
         // "Challengers" that compete with each other to be the NN of query
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is the reference)
-        for (int current = 1; current < n; ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
+        for (int i = 1; i < n; ++i) {
+            final int current = i;
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.set(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.set(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = nParams - 1; paramId > -1; --paramId) {
+            for (int p = nParams - 1; p > -1; --p) {
+                final int paramId = p;
                 setParamsFromParamId(train, paramId);
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have the NN for sure, but we still have to check if current is the new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatERP(toBeat, g, bandSize);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(ERP.getWindowSize(bandSize, train.numAttributes() - 1));
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have the NN yet.
                     // Sort the challengers so we have the better chance to organize the good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatERP(toBeat, g, bandSize);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(ERP.getWindowSize(bandSize, train.numAttributes() - 1));
-                            currPNN.set(previous, r, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, r, d, NNTable.Status.BC);
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatERP(toBeat, g, bandSize);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatERP(toBeat, g, bandSize);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(ERP.getWindowSize(bandSize, train.numAttributes() - 1));
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    int r = currPNN.r;
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
+                    int r = nns.getR(paramId, current);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
                     int w = ERP.getWindowSize(bandSize, train.numAttributes() - 1);
                     int tmp = paramId;
                     double prevG = g;
                     while (tmp >= 0 && prevG == g && w >= r) {
                         prevG = g;
-                        nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+                        nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                         tmp--;
                         if (tmp >= 0) {
                             this.setParamsFromParamId(train, tmp);
@@ -315,87 +288,73 @@ public class ERP1NN extends OneNearestNeighbour {
             System.err.println("Set is to small: " + train.numInstances() + " sequence. At least 2 sequences needed.");
         }
 
-        nns = new PotentialNN[nParams][nSamples];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < nSamples; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, nSamples);
 
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is the reference)
         for (int current = 0; current < nSamples; ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < train.numInstances(); ++previous) {
                 if (previous == current) continue;
 
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.set(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.set(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
             for (int paramId = nParams - 1; paramId > -1; --paramId) {
                 setParamsFromParamId(train, paramId);
-                PotentialNN currPNN = nns[paramId][current];
 
-                Collections.sort(challengers);
+                lazyAssessNNS.sort();
                 boolean newNN = false;
-                for (LazyAssessNN challenger : challengers) {
+                for (LazyAssessNN challenger : lazyAssessNNS) {
                     // --- Get the data
                     int previous = challenger.indexQuery;
                     if (previous == current) previous = challenger.indexReference;
-                    if (previous == currPNN.index) continue;
+                    if (previous == nns.getIndex(paramId, current)) continue;
 
                     // --- First we want to beat the current best candidate:
-                    double toBeat = currPNN.distance;
+                    double toBeat = nns.getDistance(paramId, current);
                     LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatERP(toBeat, g, bandSize);
 
                     // --- Check the result
                     if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                         int r = challenger.getMinWindowValidityForFullDistance();
                         double d = challenger.getDistance(ERP.getWindowSize(bandSize, train.numAttributes() - 1));
-                        currPNN.set(previous, r, d, PotentialNN.Status.BC);
+                        nns.set(paramId, current, previous, r, d, NNTable.Status.BC);
                         newNN = true;
                     }
 
                     if (previous < nSamples) {
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- Now check for previous NN
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
+                        toBeat = nns.getDistance(paramId, previous);
+                        challenger = lazyAssessNNS.get(previous);
                         rrt = challenger.tryToBeatERP(toBeat, g, bandSize);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(ERP.getWindowSize(bandSize, train.numAttributes() - 1));
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                         }
                     }
                 }
 
                 if (newNN) {
-                    int r = currPNN.r;
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
+                    int r = nns.getR(paramId, current);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
                     int w = ERP.getWindowSize(bandSize, train.numAttributes() - 1);
                     int tmp = paramId;
                     double prevG = g;
                     while (tmp >= 0 && prevG == g && w >= r) {
                         prevG = g;
-                        nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+                        nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                         tmp--;
                         if (tmp >= 0) {
                             this.setParamsFromParamId(train, tmp);
@@ -430,6 +389,10 @@ public class ERP1NN extends OneNearestNeighbour {
         return ERP.distance(first, second, this.g, this.bandSize);
     }
 
+    public final double distance(double[] query, double[] data, int offset, int length) {
+        return ERP.distance(query, 0, query.length, data, offset, length, this.g, this.bandSize, DistanceWorkspace.local());
+    }
+
     public final double lowerbound(Instance q, Instance c) {
         double[] U = new double[q.numAttributes() - 1];
         double[] L = new double[q.numAttributes() - 1];
@@ -443,70 +406,24 @@ public class ERP1NN extends OneNearestNeighbour {
 
     @Override
     public double classifyInstance(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-
-        double thisDist;
-
-        for (Instance i : this.train) {
-            thisDist = distance(instance, i);
-            if (thisDist < bsfDistance) {
-                bsfDistance = thisDist;
-                classCounts = new int[train.numClasses()];
-                classCounts[(int) i.classValue()]++;
-            } else if (thisDist == bsfDistance) {
-                classCounts[(int) i.classValue()]++;
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        return search((j, cutOffValue) -> distance(query, data, trainData.offset(j), length));
     }
 
     @Override
     public double classifyWithLowerBound(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-        double[] U = new double[instance.numAttributes() - 1];
-        double[] L = new double[instance.numAttributes() - 1];
-
-        double thisDist, lbDist;
-        LbErp.fillUL(instance, g, bandSize, U, L);
-
-        for (Instance i : this.train) {
-            lbDist = LbErp.distance(i, U, L, bsfDistance);
-            if (lbDist < bsfDistance) {
-                thisDist = distance(instance, i);
-                if (thisDist < bsfDistance) {
-                    bsfDistance = thisDist;
-                    classCounts = new int[train.numClasses()];
-                    classCounts[(int) i.classValue()]++;
-                } else if (thisDist == bsfDistance) {
-                    classCounts[(int) i.classValue()]++;
-                }
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        final double[] U = queryBuffer(0, query.length);
+        final double[] L = queryBuffer(1, query.length);
+        LbErp.fillUL(query, 0, query.length, g, bandSize, U, L);
+
+        return searchWithLowerBound(
+                j -> LbErp.distance(data, trainData.offset(j), length, U, L),
+                (j, cutOffValue) -> distance(query, data, trainData.offset(j), length));
     }
 
     @Override
@@ -20,7 +20,13 @@ import weka.core.Instances;
 import weka.core.TechnicalInformation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Original code from http://www.timeseriesclassification.com/code.php
@@ -74,6 +80,7 @@ public class ElasticEnsemble extends AbstractClassifierWithTrainingData {
     static double queryMax, queryMin;
     int queryIndex;
     boolean allowFastWWS = false;
+    int numThreads = 1;                 // constituents trained at the same time
 
     int[] cvParamId;
     double[] cvTime;
@@ -127,6 +134,114 @@ public class ElasticEnsemble extends AbstractClassifierWithTrainingData {
                 classifier == ConstituentClassifiers.Euclidean_1NN);
     }
 
+    /**
+     * Rough rank of the training time of a constituent, the most expensive ones are started first
+     */
+    static int trainingCost(ConstituentClassifiers classifier) {
+        switch (classifier) {
+            case TWE_1NN:
+                return 6;
+            case MSM_1NN:
+                return 5;
+            case ERP_1NN:
+                return 4;
+            case LCSS_1NN:
+                return 3;
+            case WDTW_1NN:
+            case WDDTW_1NN:
+                return 2;
+            case DTW_Rn_1NN:
+            case DDTW_Rn_1NN:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    interface ConstituentTrainer {
+        void train(int c) throws Exception;
+    }
+
+    /**
+     * Train every constituent, on numThreads threads.
+     * With several threads the constituents are started from the most expensive one, so the build takes about
+     * as long as the slowest constituent. The build time is the wall-clock time of the whole training.
+     *
+     * @param trainer trains the constituent c and sets its cv results
+     */
+    void trainConstituents(final ConstituentTrainer trainer) throws Exception {
+        final long start = System.nanoTime();
+        if (numThreads <= 1) {
+            for (int c = 0; c < classifiers.length; c++) {
+                trainer.train(c);
+            }
+        } else {
+            final Integer[] order = new Integer[classifiers.length];
+            for (int c = 0; c < order.length; c++) {
+                order[c] = c;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(trainingCost(classifiersToUse[b]), trainingCost(classifiersToUse[a])));
+
+            // no more threads than processors, counting the threads of each constituent,
+            // so that the cv time of each constituent is not inflated by waiting
+            int innerThreads = 1;
+            for (OneNearestNeighbour classifier : classifiers) {
+                innerThreads = Math.max(innerThreads, classifier.getNumThreads());
+            }
+            final int nThreads = Math.min(Math.min(numThreads, order.length),
+                    Math.max(1, Runtime.getRuntime().availableProcessors() / innerThreads));
+            final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+            try {
+                // the constituents are quiet, the progress is printed from this thread as they complete
+                final CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+                for (final int c : order) {
+                    classifiers[c].verbose = false;
+                    completion.submit(() -> {
+                        trainer.train(c);
+                        return c;
+                    });
+                }
+                for (int done = 0; done < order.length; done++) {
+                    final int c;
+                    try {
+                        c = completion.take().get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                        throw new Exception(e.getCause());
+                    }
+                    System.out.println(String.format("Built %s, bsfParamId %d, bsfAcc %.5f, took %.5f s",
+                            classifiers[c].getClassifierIdentifier(), cvParamId[c], cvAccs[c], cvTime[c]));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        trainResults.buildTime = 1.0 * (System.nanoTime() - start) / 1e9;
+    }
+
+    /**
+     * Cache for a constituent, a copy with its own envelopes if the constituents are trained at the same time
+     */
+    SequenceStatsCache constituentCache(SequenceStatsCache cache) {
+        return numThreads > 1 ? new SequenceStatsCache(cache) : cache;
+    }
+
+    /**
+     * Progress of a constituent, only printed if the constituents are trained one after the other
+     */
+    void printProgress(String message) {
+        if (numThreads <= 1) System.out.println(message);
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
     public String[] getIndividualClassifierNames() {
         String[] names = new String[this.classifiersToUse.length];
         for (int i = 0; i < classifiersToUse.length; i++) {
@@ -250,10 +365,9 @@ public class ElasticEnsemble extends AbstractClassifierWithTrainingData {
             this.derTrain = df.process(train);
         }
 
-        trainResults.buildTime = 0;
-        double[] cvAccAndPreds;
-        for (int c = 0; c < classifiers.length; c++) {
-            System.out.println("[EE] Building " + classifiers[c].getClassifierIdentifier());
+        trainConstituents(c -> {
+            printProgress("[EE] Building " + classifiers[c].getClassifierIdentifier());
+            final double[] cvAccAndPreds;
             if (isDerivative(classifiersToUse[c])) {
                 cvAccAndPreds = classifiers[c].loocv(derTrain);
             } else {
@@ -263,8 +377,7 @@ public class ElasticEnsemble extends AbstractClassifierWithTrainingData {
             cvAccs[c] = cvAccAndPreds[0];
             cvTime[c] = classifiers[c].getCvTime();
             System.arraycopy(cvAccAndPreds, 1, this.cvPreds[c], 0, cvAccAndPreds.length - 1);
-            trainResults.buildTime += cvTime[c];
-        }
+        });
     }
 
     public void buildClassifierEstimate(Instances train, double timeLimit, int instanceLimit) throws Exception {
@@ -290,10 +403,9 @@ public class ElasticEnsemble extends AbstractClassifierWithTrainingData {
             this.derTrain = df.process(train);
         }
 
-        trainResults.buildTime = 0;
-        double[] cvAccAndPreds;
-        for (int c = 0; c < classifiers.length; c++) {
-            System.out.println("[EE] Building " + classifiers[c].getClassifierIdentifier());
+        trainConstituents(c -> {
+            printProgress("[EE] Building " + classifiers[c].getClassifierIdentifier());
+            final double[] cvAccAndPreds;
             if (isDerivative(classifiersToUse[c])) {
                 cvAccAndPreds = classifiers[c].loocvEstimate(derTrain, timeLimit, instanceLimit);
             } else {
@@ -304,8 +416,7 @@ public class ElasticEnsemble extends AbstractClassifierWithTrainingData {
             cvAccs[c] = cvAccAndPreds[0];
             cvTime[c] = classifiers[c].getCvTime();
             System.arraycopy(cvAccAndPreds, 1, this.cvPreds[c], 0, cvAccAndPreds.length - 1);
-            trainResults.buildTime += cvTime[c];
-        }
+        });
     }
 
     public void buildClassifierWithParams(Instances train, int[] bestParamId, double[] bestCvAcc) throws Exception {
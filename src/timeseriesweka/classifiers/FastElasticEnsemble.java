@@ -170,15 +170,14 @@ public class FastElasticEnsemble extends ElasticEnsemble {
             this.derTrainCache = new SequenceStatsCache(derTrain, derTrain.numAttributes() - 1);
         }
 
-        trainResults.buildTime = 0;
-        double[] cvAccAndPreds;
-        for (int c = 0; c < classifiers.length; c++) {
-            System.out.println("[FastEE] Building " + classifiers[c].getClassifierIdentifier());
+        trainConstituents(c -> {
+            printProgress("[FastEE] Building " + classifiers[c].getClassifierIdentifier());
+            final double[] cvAccAndPreds;
             if (isDerivative(classifiersToUse[c])) {
-                classifiers[c].setTrainCache(derTrainCache);
+                classifiers[c].setTrainCache(constituentCache(derTrainCache));
                 cvAccAndPreds = classifiers[c].loocv(derTrain);
             } else {
-                classifiers[c].setTrainCache(trainCache);
+                classifiers[c].setTrainCache(constituentCache(trainCache));
                 cvAccAndPreds = classifiers[c].loocv(train);
             }
 
@@ -186,8 +185,7 @@ public class FastElasticEnsemble extends ElasticEnsemble {
             cvAccs[c] = cvAccAndPreds[0];
             cvTime[c] = classifiers[c].getCvTime();
             System.arraycopy(cvAccAndPreds, 1, this.cvPreds[c], 0, cvAccAndPreds.length - 1);
-            trainResults.buildTime += cvTime[c];
-        }
+        });
     }
 
     @Override
@@ -216,15 +214,14 @@ public class FastElasticEnsemble extends ElasticEnsemble {
             this.derTrainCache = new SequenceStatsCache(derTrain, derTrain.numAttributes() - 1);
         }
 
-        trainResults.buildTime = 0;
-        double[] cvAccAndPreds;
-        for (int c = 0; c < classifiers.length; c++) {
-            System.out.println("[FastEE] Building " + classifiers[c].getClassifierIdentifier());
+        trainConstituents(c -> {
+            printProgress("[FastEE] Building " + classifiers[c].getClassifierIdentifier());
+            final double[] cvAccAndPreds;
             if (isDerivative(classifiersToUse[c])) {
-                classifiers[c].setTrainCache(derTrainCache);
+                classifiers[c].setTrainCache(constituentCache(derTrainCache));
                 cvAccAndPreds = classifiers[c].loocvEstimate(derTrain, timeLimit, instanceLimit);
             } else {
-                classifiers[c].setTrainCache(trainCache);
+                classifiers[c].setTrainCache(constituentCache(trainCache));
                 cvAccAndPreds = classifiers[c].loocvEstimate(train, timeLimit, instanceLimit);
             }
 
@@ -232,8 +229,7 @@ public class FastElasticEnsemble extends ElasticEnsemble {
             cvAccs[c] = cvAccAndPreds[0];
             cvTime[c] = classifiers[c].getCvTime();
             System.arraycopy(cvAccAndPreds, 1, this.cvPreds[c], 0, cvAccAndPreds.length - 1);
-            trainResults.buildTime += cvTime[c];
-        }
+        });
     }
 
     @Override
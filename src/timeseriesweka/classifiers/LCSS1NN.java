@@ -11,18 +11,18 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.classifiers;
 
+import timeseriesweka.datasets.TimeSeriesDataset;
+import timeseriesweka.elasticDistances.DistanceWorkspace;
 import timeseriesweka.elasticDistances.LCSS;
 import timeseriesweka.elasticDistances.LazyAssessNN;
-import timeseriesweka.fastWWS.PotentialNN;
+import timeseriesweka.elasticDistances.LazyAssessNNPool;
+import timeseriesweka.fastWWS.NNTable;
 import timeseriesweka.fastWWS.SequenceStatsCache;
 import timeseriesweka.lowerBounds.LbLcss;
 import utilities.Tools;
 import weka.core.Instance;
 import weka.core.Instances;
 
-import java.util.ArrayList;
-import java.util.Collections;
-
 /**
  * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
  *
@@ -68,125 +68,110 @@ public class LCSS1NN extends OneNearestNeighbour {
             System.err.println("Set is to small: " + train.numInstances() + " sequence. At least 2 sequences needed.");
         }
 
-        nns = new PotentialNN[nParams][train.numInstances()];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < train.numInstances(); ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, train.numInstances());
         classCounts = new int[nParams][train.numInstances()][train.numClasses()];
 
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is  reference)
-        for (int current = 1; current < train.numInstances(); ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
+        for (int i = 1; i < train.numInstances(); ++i) {
+            final int current = i;
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = nParams - 1; paramId > -1; --paramId) {
+            for (int p = nParams - 1; p > -1; --p) {
+                final int paramId = p;
 
                 setParamsFromParamId(train, paramId);
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have  NN for sure, but we still have to check if current is  new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatLCSS(toBeat, delta, epsilon);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(delta);
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                             if (d < toBeat) {
                                 classCounts[paramId][previous] = new int[train.numClasses()];
-                                classCounts[paramId][previous][(int) challenger.getReference().classValue()]++;
+                                classCounts[paramId][previous][cache.getDataset().getLabel(challenger.indexReference)]++;
                             } else if (d == toBeat) {
-                                classCounts[paramId][previous][(int) challenger.getReference().classValue()]++;
+                                classCounts[paramId][previous][cache.getDataset().getLabel(challenger.indexReference)]++;
                             }
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have  NN yet.
                     // Sort the challengers so we have  better chance to organize  good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
 
                         // --- First we want to beat the current best candidate of reference:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatLCSS(toBeat, delta, epsilon);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(delta);
-                            currPNN.set(previous, r, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, r, d, NNTable.Status.BC);
                             if (d < toBeat) {
                                 classCounts[paramId][current] = new int[train.numClasses()];
-                                classCounts[paramId][current][(int) challenger.getQuery().classValue()]++;
+                                classCounts[paramId][current][cache.getDataset().getLabel(challenger.indexQuery)]++;
                             } else if (d == toBeat) {
-                                classCounts[paramId][current][(int) challenger.getQuery().classValue()]++;
+                                classCounts[paramId][current][cache.getDataset().getLabel(challenger.indexQuery)]++;
                             }
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        PotentialNN prevNN = nns[paramId][previous];
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatLCSS(toBeat, delta, epsilon);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatLCSS(toBeat, delta, epsilon);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(delta);
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                             if (d < toBeat) {
                                 classCounts[paramId][previous] = new int[train.numClasses()];
-                                classCounts[paramId][previous][(int) challenger.getReference().classValue()]++;
+                                classCounts[paramId][previous][cache.getDataset().getLabel(challenger.indexReference)]++;
                             } else if (d == toBeat) {
-                                classCounts[paramId][previous][(int) challenger.getReference().classValue()]++;
+                                classCounts[paramId][previous][cache.getDataset().getLabel(challenger.indexReference)]++;
                             }
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    int r = currPNN.r;
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
+                    int r = nns.getR(paramId, current);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
                     int tmp = paramId;
-//                    nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+//                    nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                     double prevEpsilon = epsilon;
                     while (tmp > 0 && paramId % 10 > 0 && prevEpsilon == epsilon && delta >= r) {
-                        nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+                        nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                         classCounts[tmp][current] = classCounts[paramId][current].clone();
 
                         tmp--;
@@ -203,125 +188,110 @@ public class LCSS1NN extends OneNearestNeighbour {
             System.err.println("Set is to small: " + n + " sequence. At least 2 sequences needed.");
         }
 
-        nns = new PotentialNN[nParams][n];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < n; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, n);
         classCounts = new int[nParams][n][train.numClasses()];
 
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[n];
-        for (int i = 0; i < n; ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, n);
 
         // Iteration for all TS, starting with the second one (first is  reference)
-        for (int current = 1; current < n; ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
+        for (int i = 1; i < n; ++i) {
+            final int current = i;
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = nParams - 1; paramId > -1; --paramId) {
+            for (int p = nParams - 1; p > -1; --p) {
+                final int paramId = p;
 
                 setParamsFromParamId(train, paramId);
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have  NN for sure, but we still have to check if current is  new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatLCSS(toBeat, delta, epsilon);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(delta);
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                             if (d < toBeat) {
                                 classCounts[paramId][previous] = new int[train.numClasses()];
-                                classCounts[paramId][previous][(int) challenger.getReference().classValue()]++;
+                                classCounts[paramId][previous][cache.getDataset().getLabel(challenger.indexReference)]++;
                             } else if (d == toBeat) {
-                                classCounts[paramId][previous][(int) challenger.getReference().classValue()]++;
+                                classCounts[paramId][previous][cache.getDataset().getLabel(challenger.indexReference)]++;
                             }
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have  NN yet.
                     // Sort the challengers so we have  better chance to organize  good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
 
                         // --- First we want to beat the current best candidate of reference:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatLCSS(toBeat, delta, epsilon);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(delta);
-                            currPNN.set(previous, r, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, r, d, NNTable.Status.BC);
                             if (d < toBeat) {
                                 classCounts[paramId][current] = new int[train.numClasses()];
-                                classCounts[paramId][current][(int) challenger.getQuery().classValue()]++;
+                                classCounts[paramId][current][cache.getDataset().getLabel(challenger.indexQuery)]++;
                             } else if (d == toBeat) {
-                                classCounts[paramId][current][(int) challenger.getQuery().classValue()]++;
+                                classCounts[paramId][current][cache.getDataset().getLabel(challenger.indexQuery)]++;
                             }
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        PotentialNN prevNN = nns[paramId][previous];
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatLCSS(toBeat, delta, epsilon);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatLCSS(toBeat, delta, epsilon);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(delta);
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                             if (d < toBeat) {
                                 classCounts[paramId][previous] = new int[train.numClasses()];
-                                classCounts[paramId][previous][(int) challenger.getReference().classValue()]++;
+                                classCounts[paramId][previous][cache.getDataset().getLabel(challenger.indexReference)]++;
                             } else if (d == toBeat) {
-                                classCounts[paramId][previous][(int) challenger.getReference().classValue()]++;
+                                classCounts[paramId][previous][cache.getDataset().getLabel(challenger.indexReference)]++;
                             }
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    int r = currPNN.r;
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
+                    int r = nns.getR(paramId, current);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
                     int tmp = paramId;
-//                    nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+//                    nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                     double prevEpsilon = epsilon;
                     while (tmp > 0 && paramId % 10 > 0 && prevEpsilon == epsilon && delta >= r) {
-                        nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+                        nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                         classCounts[tmp][current] = classCounts[paramId][current].clone();
 
                         tmp--;
@@ -345,99 +315,83 @@ public class LCSS1NN extends OneNearestNeighbour {
 
         // We need  N*L storing area. We favorite an access per window size.
         // For each [Window Size][sequence], we store the nearest neighbour. See above.
-        nns = new PotentialNN[nParams][nSamples];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < nSamples; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, nSamples);
         classCounts = new int[nParams][nSamples][train.numClasses()];
 
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is  reference)
         for (int current = 0; current < nSamples; ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
             for (int paramId = nParams - 1; paramId > -1; --paramId) {
                 setParamsFromParamId(train, paramId);
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                Collections.sort(challengers);
+                lazyAssessNNS.sort();
                 boolean newNN = false;
-                for (LazyAssessNN challenger : challengers) {
+                for (LazyAssessNN challenger : lazyAssessNNS) {
                     // --- Get the data
                     int previous = challenger.indexQuery;
                     if (previous == current) previous = challenger.indexReference;
-                    if (previous == currPNN.index) continue;
+                    if (previous == nns.getIndex(paramId, current)) continue;
 
                     // --- First we want to beat the current best candidate of reference:
-                    double toBeat = currPNN.distance;
+                    double toBeat = nns.getDistance(paramId, current);
                     LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatLCSS(toBeat, delta, epsilon);
 
                     // --- Check the result
                     if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                         int r = challenger.getMinWindowValidityForFullDistance();
                         double d = challenger.getDistance(delta);
-                        currPNN.set(previous, r, d, PotentialNN.Status.BC);
+                        nns.set(paramId, current, previous, r, d, NNTable.Status.BC);
                         if (d < toBeat) {
                             classCounts[paramId][current] = new int[train.numClasses()];
-                            classCounts[paramId][current][(int) challenger.getQuery().classValue()]++;
+                            classCounts[paramId][current][cache.getDataset().getLabel(challenger.indexQuery)]++;
                         } else if (d == toBeat) {
-                            classCounts[paramId][current][(int) challenger.getQuery().classValue()]++;
+                            classCounts[paramId][current][cache.getDataset().getLabel(challenger.indexQuery)]++;
                         }
                         newNN = true;
                     }
 
                     if (previous < nSamples) {
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- Now check for previous NN
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
+                        toBeat = nns.getDistance(paramId, previous);
+                        challenger = lazyAssessNNS.get(previous);
                         rrt = challenger.tryToBeatLCSS(toBeat, delta, epsilon);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             int r = challenger.getMinWindowValidityForFullDistance();
                             double d = challenger.getDistance(delta);
-                            prevNN.set(current, r, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, r, d, NNTable.Status.NN);
                             if (d < toBeat) {
                                 classCounts[paramId][previous] = new int[train.numClasses()];
-                                classCounts[paramId][previous][(int) challenger.getReference().classValue()]++;
+                                classCounts[paramId][previous][cache.getDataset().getLabel(challenger.indexReference)]++;
                             } else if (d == toBeat) {
-                                classCounts[paramId][previous][(int) challenger.getReference().classValue()]++;
+                                classCounts[paramId][previous][cache.getDataset().getLabel(challenger.indexReference)]++;
                             }
                         }
                     }
                 }
 
                 if (newNN) {
-                    int r = currPNN.r;
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
+                    int r = nns.getR(paramId, current);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
                     int tmp = paramId;
-                    nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+                    nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                     double prevEpsilon = epsilon;
                     while (tmp > 0 && paramId % 10 > 0 && prevEpsilon == epsilon && delta >= r) {
-                        nns[tmp][current].set(index, r, d, PotentialNN.Status.NN);
+                        nns.set(tmp, current, index, r, d, NNTable.Status.NN);
                         classCounts[tmp][current] = classCounts[paramId][current].clone();
 
                         tmp--;
@@ -530,6 +484,14 @@ public class LCSS1NN extends OneNearestNeighbour {
         return LCSS.distance(first, second, this.epsilon, this.delta);
     }
 
+    public double distance(double[] query, double[] data, int offset, int length) {
+        return LCSS.distance(query, 0, query.length, data, offset, length, this.epsilon, this.delta, DistanceWorkspace.local());
+    }
+
+    public double distance(double[] query, double[] data, int offset, int length, double cutOffValue) {
+        return LCSS.distance(query, 0, query.length, data, offset, length, this.epsilon, this.delta, cutOffValue, DistanceWorkspace.local());
+    }
+
     public double lowerbound(Instance q, Instance c) {
         double[] U = new double[q.numAttributes() - 1];
         double[] L = new double[q.numAttributes() - 1];
@@ -543,70 +505,24 @@ public class LCSS1NN extends OneNearestNeighbour {
 
     @Override
     public double classifyInstance(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-
-        double thisDist;
-
-        for (Instance i : this.train) {
-            thisDist = distance(instance, i);
-            if (thisDist < bsfDistance) {
-                bsfDistance = thisDist;
-                classCounts = new int[train.numClasses()];
-                classCounts[(int) i.classValue()]++;
-            } else if (thisDist == bsfDistance) {
-                classCounts[(int) i.classValue()]++;
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        return search((j, cutOffValue) -> distance(query, data, trainData.offset(j), length, cutOffValue));
     }
 
     @Override
     public double classifyWithLowerBound(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-        double[] U = new double[instance.numAttributes() - 1];
-        double[] L = new double[instance.numAttributes() - 1];
-
-        double thisDist, lbDist;
-        LbLcss.fillUL(instance, epsilon, delta, U, L);
-
-        for (Instance i : this.train) {
-            lbDist = LbLcss.distance(i, U, L);
-            if (lbDist <= bsfDistance) {
-                thisDist = distance(instance, i);
-                if (thisDist < bsfDistance) {
-                    bsfDistance = thisDist;
-                    classCounts = new int[train.numClasses()];
-                    classCounts[(int) i.classValue()]++;
-                } else if (thisDist == bsfDistance) {
-                    classCounts[(int) i.classValue()]++;
-                }
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        final double[] U = queryBuffer(0, query.length);
+        final double[] L = queryBuffer(1, query.length);
+        LbLcss.fillUL(query, 0, query.length, epsilon, delta, U, L);
+
+        return searchWithLowerBound(
+                j -> LbLcss.distance(data, trainData.offset(j), length, U, L),
+                (j, cutOffValue) -> distance(query, data, trainData.offset(j), length, cutOffValue));
     }
 
     @Override
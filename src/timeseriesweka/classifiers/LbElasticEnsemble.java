@@ -76,15 +76,14 @@ public class LbElasticEnsemble extends ElasticEnsemble {
             this.derTrainCache = new SequenceStatsCache(derTrain, derTrain.numAttributes() - 1);
         }
 
-        trainResults.buildTime = 0;
-        double[] cvAccAndPreds;
-        for (int c = 0; c < classifiers.length; c++) {
-            System.out.println("[LbEE] Building " + classifiers[c].getClassifierIdentifier());
+        trainConstituents(c -> {
+            printProgress("[LbEE] Building " + classifiers[c].getClassifierIdentifier());
+            final double[] cvAccAndPreds;
             if (isDerivative(classifiersToUse[c])) {
-                classifiers[c].setTrainCache(derTrainCache);
+                classifiers[c].setTrainCache(constituentCache(derTrainCache));
                 cvAccAndPreds = classifiers[c].loocvWithLowerBound(derTrain);
             } else {
-                classifiers[c].setTrainCache(trainCache);
+                classifiers[c].setTrainCache(constituentCache(trainCache));
                 cvAccAndPreds = classifiers[c].loocvWithLowerBound(train);
             }
 
@@ -92,8 +91,7 @@ public class LbElasticEnsemble extends ElasticEnsemble {
             cvAccs[c] = cvAccAndPreds[0];
             cvTime[c] = classifiers[c].getCvTime();
             System.arraycopy(cvAccAndPreds, 1, this.cvPreds[c], 0, cvAccAndPreds.length - 1);
-            trainResults.buildTime += cvTime[c];
-        }
+        });
     }
 
     @Override
@@ -122,15 +120,14 @@ public class LbElasticEnsemble extends ElasticEnsemble {
             this.derTrainCache = new SequenceStatsCache(derTrain, derTrain.numAttributes() - 1);
         }
 
-        trainResults.buildTime = 0;
-        double[] cvAccAndPreds;
-        for (int c = 0; c < classifiers.length; c++) {
-            System.out.println("[FastEE] Building " + classifiers[c].getClassifierIdentifier());
+        trainConstituents(c -> {
+            printProgress("[FastEE] Building " + classifiers[c].getClassifierIdentifier());
+            final double[] cvAccAndPreds;
             if (isDerivative(classifiersToUse[c])) {
-                classifiers[c].setTrainCache(derTrainCache);
+                classifiers[c].setTrainCache(constituentCache(derTrainCache));
                 cvAccAndPreds = classifiers[c].loocvEstimate(derTrain, timeLimit, instanceLimit);
             } else {
-                classifiers[c].setTrainCache(trainCache);
+                classifiers[c].setTrainCache(constituentCache(trainCache));
                 cvAccAndPreds = classifiers[c].loocvEstimate(train, timeLimit, instanceLimit);
             }
 
@@ -138,8 +135,7 @@ public class LbElasticEnsemble extends ElasticEnsemble {
             cvAccs[c] = cvAccAndPreds[0];
             cvTime[c] = classifiers[c].getCvTime();
             System.arraycopy(cvAccAndPreds, 1, this.cvPreds[c], 0, cvAccAndPreds.length - 1);
-            trainResults.buildTime += cvTime[c];
-        }
+        });
     }
 
     @Override
@@ -12,10 +12,14 @@
 package timeseriesweka.classifiers;
 
 import development.DataSets;
+import timeseriesweka.datasets.TimeSeriesDataset;
+import timeseriesweka.elasticDistances.DistanceWorkspace;
 import timeseriesweka.elasticDistances.LazyAssessNN;
+import timeseriesweka.elasticDistances.LazyAssessNNPool;
 import timeseriesweka.elasticDistances.MSM;
-import timeseriesweka.fastWWS.PotentialNN;
+import timeseriesweka.fastWWS.NNTable;
 import timeseriesweka.fastWWS.SequenceStatsCache;
+import timeseriesweka.lowerBounds.LbKim;
 import timeseriesweka.lowerBounds.LbMsm;
 import utilities.ClassifierTools;
 import weka.core.Attribute;
@@ -61,104 +65,89 @@ public class MSM1NN extends OneNearestNeighbour {
 
         // We need N*L storing area. We favorite an access per window size.
         // For each [Window Size][sequence], we store the nearest neighbour. See above.
-        nns = new PotentialNN[nParams][train.numInstances()];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < train.numInstances(); ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, train.numInstances());
 
         // Vector of LazyUCR lbKeogh, propagating bound info "horizontally"
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
         // "Challengers" that compete with each other to be the NN of query
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is reference)
-        for (int current = 1; current < train.numInstances(); ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
+        for (int i = 1; i < train.numInstances(); ++i) {
+            final int current = i;
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = 0; paramId < nParams; ++paramId) {
+            for (int p = 0; p < nParams; ++p) {
+                final int paramId = p;
 
                 setParamsFromParamId(train, paramId);
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have NN for sure, but we still have to check if current is new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatMSM(toBeat, c);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have NN yet.
                     // Sort the challengers so we have better chance to organize good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatMSM(toBeat, c);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            currPNN.set(previous, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, d, NNTable.Status.BC);
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatMSM(toBeat, c);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatMSM(toBeat, c);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
                     if (paramId > 0) {
-                        double currD = currPNN.distance;
-                        double prevD = nns[paramId - 1][current].distance;
-                        int index = currPNN.index;
+                        double currD = nns.getDistance(paramId, current);
+                        double prevD = nns.getDistance(paramId - 1, current);
+                        int index = nns.getIndex(paramId, current);
                         if (currD == prevD) {
                             for (int j = paramId; j < nParams; j++) {
-                                nns[j][current].set(index, currD, PotentialNN.Status.NN);
+                                nns.set(j, current, index, currD, NNTable.Status.NN);
                             }
                         }
                     }
@@ -175,104 +164,89 @@ public class MSM1NN extends OneNearestNeighbour {
 
         // We need N*L storing area. We favorite an access per window size.
         // For each [Window Size][sequence], we store the nearest neighbour. See above.
-        nns = new PotentialNN[nParams][n];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < n; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, n);
 
         // Vector of LazyUCR lbKeogh, propagating bound info "horizontally"
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[n];
-        for (int i = 0; i < n; ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, n);
         // "Challengers" that compete with each other to be the NN of query
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is reference)
-        for (int current = 1; current < n; ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
+        for (int i = 1; i < n; ++i) {
+            final int current = i;
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = 0; paramId < nParams; ++paramId) {
+            for (int p = 0; p < nParams; ++p) {
+                final int paramId = p;
 
                 setParamsFromParamId(train, paramId);
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have NN for sure, but we still have to check if current is new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatMSM(toBeat, c);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have NN yet.
                     // Sort the challengers so we have better chance to organize good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatMSM(toBeat, c);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            currPNN.set(previous, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, d, NNTable.Status.BC);
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatMSM(toBeat, c);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatMSM(toBeat, c);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
                     if (paramId > 0) {
-                        double currD = currPNN.distance;
-                        double prevD = nns[paramId - 1][current].distance;
-                        int index = currPNN.index;
+                        double currD = nns.getDistance(paramId, current);
+                        double prevD = nns.getDistance(paramId - 1, current);
+                        int index = nns.getIndex(paramId, current);
                         if (currD == prevD) {
                             for (int j = paramId; j < nParams; j++) {
-                                nns[j][current].set(index, currD, PotentialNN.Status.NN);
+                                nns.set(j, current, index, currD, NNTable.Status.NN);
                             }
                         }
                     }
@@ -294,32 +268,20 @@ public class MSM1NN extends OneNearestNeighbour {
 
         // We need N*L storing area. We favorite an access per window size.
         // For each [Window Size][sequence], we store the nearest neighbour. See above.
-        nns = new PotentialNN[nParams][nSamples];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < nSamples; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, nSamples);
 
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is reference)
         for (int current = 0; current < nSamples; ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < train.numInstances(); ++previous) {
                 if (previous == current) continue;
 
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
@@ -327,49 +289,47 @@ public class MSM1NN extends OneNearestNeighbour {
                 setParamsFromParamId(train, paramId);
 
                 // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-                Collections.sort(challengers);
+                lazyAssessNNS.sort();
                 boolean newNN = false;
-                for (LazyAssessNN challenger : challengers) {
+                for (LazyAssessNN challenger : lazyAssessNNS) {
                     // --- Get the data
                     int previous = challenger.indexQuery;
                     if (previous == current) previous = challenger.indexReference;
-                    if (previous == currPNN.index) continue;
+                    if (previous == nns.getIndex(paramId, current)) continue;
 
                     // --- First we want to beat the current best candidate:
-                    double toBeat = currPNN.distance;
+                    double toBeat = nns.getDistance(paramId, current);
                     LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatMSM(toBeat, c);
 
                     // --- Check the result
                     if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                         double d = challenger.getDistance();
-                        currPNN.set(previous, d, PotentialNN.Status.BC);
+                        nns.set(paramId, current, previous, d, NNTable.Status.BC);
                         newNN = true;
                     }
 
                     if (previous < nSamples) {
-                        PotentialNN prevNN = nns[paramId][previous];
                         // --- Now check for previous NN
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
+                        toBeat = nns.getDistance(paramId, previous);
+                        challenger = lazyAssessNNS.get(previous);
                         rrt = challenger.tryToBeatMSM(toBeat, c);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
                     }
                 }
 
                 if (newNN && paramId > 0) {
-                    double currD = currPNN.distance;
-                    double prevD = nns[paramId - 1][current].distance;
-                    int index = currPNN.index;
+                    double currD = nns.getDistance(paramId, current);
+                    double prevD = nns.getDistance(paramId - 1, current);
+                    int index = nns.getIndex(paramId, current);
                     if (currD == prevD) {
                         for (int j = paramId; j < nParams; j++) {
-                            nns[j][current].set(index, currD, PotentialNN.Status.NN);
+                            nns.set(j, current, index, currD, NNTable.Status.NN);
                         }
                     }
                 }
@@ -398,75 +358,42 @@ public class MSM1NN extends OneNearestNeighbour {
         return MSM.distance1(first, second, c, cutOffValue);
     }
 
+    public double distance(double[] query, double[] data, int offset, int length) {
+        return MSM.distance1(query, 0, query.length, data, offset, length, c, DistanceWorkspace.local());
+    }
+
+    public double distance(double[] query, double[] data, int offset, int length, double cutOffValue) {
+        return MSM.distance1(query, 0, query.length, data, offset, length, c, cutOffValue, DistanceWorkspace.local());
+    }
+
     public double lowerbound(Instance q, Instance c, double queryMax, double queryMin) {
         return LbMsm.distance(q, c, this.c, queryMax, queryMin);
     }
 
     @Override
     public double classifyInstance(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-
-        double thisDist;
-
-        for (int j = 0; j < train.numInstances(); j++) {
-            Instance c = this.train.instance(j);
-            thisDist = distance(instance, c, bsfDistance);
-            if (thisDist < bsfDistance) {
-                bsfDistance = thisDist;
-                classCounts = new int[train.numClasses()];
-                classCounts[(int) c.classValue()]++;
-            } else if (thisDist == bsfDistance) {
-                classCounts[(int) c.classValue()]++;
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        // the distance abandons at its cutoff, so it gets the next value up to keep the ties
+        return search((j, cutOffValue) -> distance(query, data, trainData.offset(j), length, Math.nextUp(cutOffValue)));
     }
 
     @Override
     public double classifyWithLowerBound(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-
-        double thisDist, lbDist;
-
-        for (int j = 0; j < train.numInstances(); j++) {
-            Instance c = this.train.instance(j);
-            lbDist = LbMsm.distance(instance, c, this.c, this.queryMax, this.queryMin, bsfDistance);
-            if (lbDist < bsfDistance) {
-                thisDist = distance(instance, c, bsfDistance);
-                if (thisDist < bsfDistance) {
-                    bsfDistance = thisDist;
-                    classCounts = new int[train.numClasses()];
-                    classCounts[(int) c.classValue()]++;
-                } else if (thisDist == bsfDistance) {
-                    classCounts[(int) c.classValue()]++;
-                }
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        return searchWithLowerBound(
+                j -> LbKim.distance(data, trainData.offset(j), query, 0, length, LbKim.Cost.Absolute, 1, this.c, Double.POSITIVE_INFINITY),
+                (j, cutOffValue) -> {
+                    final int offset = trainData.offset(j);
+                    // the bound and the distance abandon at their cutoff, so they get the next value up to keep the ties
+                    final double tieCutOff = Math.nextUp(cutOffValue);
+                    final double lbDist = LbMsm.distance(query, 0, data, offset, length, this.c, this.queryMax, this.queryMin, tieCutOff);
+                    if (lbDist > cutOffValue) return Double.POSITIVE_INFINITY;
+                    return distance(query, data, offset, length, tieCutOff);
+                });
     }
 
     @Override
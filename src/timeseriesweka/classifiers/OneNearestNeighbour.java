@@ -11,9 +11,11 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.classifiers;
 
+import timeseriesweka.datasets.TimeSeriesDataset;
 import timeseriesweka.elasticDistances.LazyAssessNN;
-import timeseriesweka.fastWWS.PotentialNN;
+import timeseriesweka.fastWWS.NNTable;
 import timeseriesweka.fastWWS.SequenceStatsCache;
+import utilities.IndexSort;
 import weka.classifiers.AbstractClassifier;
 import weka.core.Attribute;
 import weka.core.Instance;
@@ -21,6 +23,12 @@ import weka.core.Instances;
 
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
@@ -29,7 +37,7 @@ import java.util.*;
  * <p>
  * Superclass for NN classifiers
  */
-public abstract class OneNearestNeighbour extends AbstractClassifier {
+public abstract class OneNearestNeighbour extends AbstractClassifier implements Cloneable {
     /*------------------------------------------------------------------------------------------------------------------
         Variables for FastWWS
      -----------------------------------------------------------------------------------------------------------------*/
@@ -38,10 +46,12 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
     int approxSamples = 10;
     private int trainResample = 0;
     protected Instances train;
+    protected TimeSeriesDataset trainData;
+    int excludedIndex = -1;             // training sequence left out by the LOOCV, -1 if none
     double[] U, L;
     protected String datasetName;
     int maxWindow;
-    PotentialNN[][] nns;
+    NNTable nns;
     private ArrayList<Neighbour>[][] nnOrderings = null;
     private ArrayList<Neighbour> tmp = null;
     int[][][] classCounts;
@@ -62,9 +72,16 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
     PriorityQueue<LazyAssessNN>[][] queues;
     LazyAssessNN[][] nnsCrossLine;
     double[] UBs;
-    static double timePrev;
+    double timePrev;
     double timeLimit = 3.6e12;
     int instanceLimit = 10;
+    private static final int minParallelPrevious = 64;  // below this, the previous sequences are checked in sequence
+    private int numThreads = 1;                         // threads used to build the FastWWS table and sweep the params
+    private transient ForkJoinPool pool;
+    private transient double[] searchBounds;            // first bound of each training sequence, see searchWithLowerBound
+    private transient int[] searchOrder, searchBuffer;  // training sequences by increasing first bound
+    private transient double[][] queryBuffers;          // envelopes of the query, see queryBuffer
+    boolean verbose = true;                             // print the progress, off when trained along other classifiers
 
     private int bsfParamId;
     private DecimalFormat df = new DecimalFormat("##.###");
@@ -75,6 +92,17 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
 
     public abstract double distance(Instance first, Instance second);
 
+    /**
+     * Distance between a query and a series of a flat dataset
+     *
+     * @param query  values of the query
+     * @param data   values of the dataset
+     * @param offset start of the series in the data
+     * @param length length of the series
+     * @return distance between the query and the series
+     */
+    public abstract double distance(double[] query, double[] data, int offset, int length);
+
     public double distance(Instance[] first, Instance[] second) {
         double sum = 0;
         double thisDist;
@@ -89,37 +117,127 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
     public abstract void setParamsFromParamId(Instances train, int paramId);
 
     public void buildClassifier(Instances train) throws Exception {
-        this.train = train;
+        setTrainData(train);
     }
 
     public void buildClassifier(Instances train, SequenceStatsCache cache) {
-        this.train = train;
+        setTrainData(train);
         this.trainCache = cache;
     }
 
+    /**
+     * Set the training set and its flat copy, the copy is kept when the classifier is built again on the same
+     * training set, e.g. for every parameter ID of a LOOCV
+     */
+    private void setTrainData(final Instances train) {
+        if (train != this.train || this.trainData == null) {
+            this.trainData = new TimeSeriesDataset(train);
+        }
+        this.train = train;
+    }
+
     public void buildClassifier() {
         this.train = null;
+        this.trainData = null;
     }
 
     public abstract double classifyWithLowerBound(Instance instance);
 
     @Override
     public double classifyInstance(Instance instance) {
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        return search((j, cutOffValue) -> distance(query, data, trainData.offset(j), length));
+    }
+
+    interface FirstBound {
+        double lowerBound(int j);
+    }
+
+    interface Refinement {
+        double distance(int j, double cutOffValue);
+    }
+
+    /**
+     * Nearest neighbour search scanning the training sequences in the order of the dataset
+     *
+     * @param refinement distance to training sequence j, or more than cutOffValue if it is abandoned
+     * @return class of the nearest neighbours
+     */
+    double search(final Refinement refinement) {
+        final int n = trainData.size();
+        allocateSearch(n);
+        int size = 0;
+        for (int j = 0; j < n; j++) {
+            if (j == excludedIndex) continue;
+            searchOrder[size++] = j;
+        }
+        return nearestClass(searchOrder, size, null, refinement);
+    }
+
+    /**
+     * Two-phase nearest neighbour search.
+     * The first bound is computed for every training sequence, then the sequences are refined in increasing order
+     * of it, so the best so far distance drops quickly, until the next bound is above the best so far distance.
+     * A sequence with a bound equal to the best so far distance is still refined, so all the tied neighbours
+     * are counted and the class picked is the same as with a scan in dataset order.
+     * The bounds and the order are kept in fields, so a classifier searches one query at a time.
+     *
+     * @param firstBound cheap lower bound of the distance to training sequence j
+     * @param refinement distance to training sequence j, or more than cutOffValue if it is pruned or abandoned
+     * @return class of the nearest neighbours
+     */
+    double searchWithLowerBound(final FirstBound firstBound, final Refinement refinement) {
+        final int n = trainData.size();
+        allocateSearch(n);
+        final double[] bounds = searchBounds;
+        final int[] order = searchOrder;
+        int size = 0;
+        for (int j = 0; j < n; j++) {
+            if (j == excludedIndex) continue;
+            bounds[j] = firstBound.lowerBound(j);
+            order[size++] = j;
+        }
+        IndexSort.sort(order, size, bounds, searchBuffer);
+        return nearestClass(order, size, bounds, refinement);
+    }
+
+    private void allocateSearch(final int n) {
+        if (searchBounds == null || searchBounds.length < n) {
+            searchBounds = new double[n];
+            searchOrder = new int[n];
+            searchBuffer = new int[n];
+        }
+    }
+
+    /**
+     * Refine the training sequences in the given order, counting the classes of the nearest ones for tie splitting
+     *
+     * @param order      training sequences to refine
+     * @param size       number of sequences in order
+     * @param bounds     lower bound of each training sequence, the scan stops at the first one above the best so
+     *                   far distance, null to refine them all
+     * @param refinement distance to training sequence j, or more than cutOffValue if it is pruned or abandoned
+     * @return class with the most nearest neighbours, the first one on ties
+     */
+    private double nearestClass(final int[] order, final int size, final double[] bounds, final Refinement refinement) {
         double bsfDistance = Double.MAX_VALUE;
         // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
+        int[] classCounts = new int[trainData.numClasses()];
 
         double thisDist;
 
-        for (int j = 0; j < this.train.numInstances(); j++) {
-            Instance i = train.instance(j);
-            thisDist = distance(instance, i);
+        for (int k = 0; k < size; k++) {
+            final int j = order[k];
+            if (bounds != null && bounds[j] > bsfDistance) break;
+            thisDist = refinement.distance(j, bsfDistance);
             if (thisDist < bsfDistance) {
                 bsfDistance = thisDist;
-                classCounts = new int[train.numClasses()];
-                classCounts[(int) i.classValue()]++;
+                classCounts = new int[trainData.numClasses()];
+                classCounts[trainData.getLabel(j)]++;
             } else if (thisDist == bsfDistance) {
-                classCounts[(int) i.classValue()]++;
+                classCounts[trainData.getLabel(j)]++;
             }
         }
 
@@ -135,6 +253,68 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         return bsfClass;
     }
 
+    /**
+     * Buffer for the envelopes of a query, kept between the queries of a classifier
+     *
+     * @param i      index of the buffer
+     * @param length length of the series
+     * @return buffer i, of the given length
+     */
+    double[] queryBuffer(final int i, final int length) {
+        if (queryBuffers == null) queryBuffers = new double[5][];
+        if (queryBuffers[i] == null || queryBuffers[i].length != length) queryBuffers[i] = new double[length];
+        return queryBuffers[i];
+    }
+
+    void printProgress(String message) {
+        if (verbose) System.out.print(message);
+    }
+
+    void printlnProgress(String message) {
+        if (verbose) System.out.println(message);
+    }
+
+    /**
+     * Copy of the training set shuffled as by Instances.randomize with the resample seed.
+     * The training set of the caller can be shared with other classifiers trained at the same time,
+     * so it is left in its order.
+     *
+     * @param train training set
+     * @param order filled with the index in train of each instance of the copy
+     * @return shuffled copy of the training set
+     */
+    private Instances shuffledCopy(final Instances train, final int[] order) {
+        final int n = train.numInstances();
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        final Random random = new Random(trainResample);
+        for (int j = n - 1; j > 0; j--) {
+            final int k = random.nextInt(j + 1);
+            final int tmp = order[j];
+            order[j] = order[k];
+            order[k] = tmp;
+        }
+        final Instances copy = new Instances(train, n);
+        for (int i = 0; i < n; i++) {
+            copy.add(train.instance(order[i]));
+        }
+        return copy;
+    }
+
+    /**
+     * Accuracy and predictions of a shuffled copy, with the predictions put back in the order of the training set.
+     * Approximate results only cover the first samples of the copy, the other predictions are left at 0
+     */
+    private static double[] inTrainOrder(final double[] accAndPreds, final int[] order) {
+        final double[] res = new double[order.length + 1];
+        res[0] = accAndPreds[0];
+        for (int i = 0; i < accAndPreds.length - 1; i++) {
+            res[order[i] + 1] = accAndPreds[i + 1];
+        }
+        return res;
+    }
+
     public double accuracy(Instances test, SequenceStatsCache testCache) {
         double a = 0;
         int size = test.numInstances();
@@ -193,18 +373,17 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         double bsfAcc = -1;
         double[] bsfaccAndPreds = null;
 
-        System.out.print("[1-NN] LOOCV for " + this.toString() + ", param ");
-        for (int paramId = 0; paramId < nParams; paramId++) {
-            System.out.print(".");
-            accAndPreds = loocvAccAndPreds(train, paramId);
+        printProgress("[1-NN] LOOCV for " + this.toString() + ", param ");
+        // the flat copy of the training set is built once and shared by the copies of the sweep
+        this.buildClassifier(train);
+        final double[][] sweep = sweepParams((classifier, paramId) -> classifier.loocvAccAndPreds(train, paramId));
+        for (int paramId = 0; paramId < sweep.length; paramId++) {
+            accAndPreds = sweep[paramId];
             if (accAndPreds[0] > bsfAcc) {
                 bsfParamId = paramId;
                 bsfAcc = accAndPreds[0];
                 bsfaccAndPreds = accAndPreds;
             }
-            if (!this.allowLoocv) {
-                paramId = nParams + 1;
-            }
         }
         long end = System.nanoTime();
         cvTime = 1.0 * (end - start) / 1e9;
@@ -215,7 +394,7 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         } else {
             this.setParamsFromParamId(train, 100);
         }
-        System.out.println(String.format(", bsfParamId %d - %s, bsfAcc %.5f, took %.5f s", bsfParamId,
+        printlnProgress(String.format(", bsfParamId %d - %s, bsfAcc %.5f, took %.5f s", bsfParamId,
                 getParamInformationString(), bsfAcc, cvTime));
 
         return bsfaccAndPreds;
@@ -229,18 +408,17 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         double bsfAcc = -1;
         double[] bsfaccAndPreds = null;
 
-        System.out.print("[1-NN] LOOCV with Lower Bound for " + this.toString() + ", param ");
-        for (int paramId = 0; paramId < nParams; paramId++) {
-            System.out.print(".");
-            accAndPreds = loocvWithLowerBound(train, paramId);
+        printProgress("[1-NN] LOOCV with Lower Bound for " + this.toString() + ", param ");
+        // the flat copy of the training set is built once and shared by the copies of the sweep
+        this.buildClassifier(train);
+        final double[][] sweep = sweepParams((classifier, paramId) -> classifier.loocvWithLowerBound(train, paramId));
+        for (int paramId = 0; paramId < sweep.length; paramId++) {
+            accAndPreds = sweep[paramId];
             if (accAndPreds[0] > bsfAcc) {
                 bsfParamId = paramId;
                 bsfAcc = accAndPreds[0];
                 bsfaccAndPreds = accAndPreds;
             }
-            if (!this.allowLoocv) {
-                paramId = nParams + 1;
-            }
         }
         long end = System.nanoTime();
         cvTime = 1.0 * (end - start) / 1e9;
@@ -251,12 +429,75 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         } else {
             this.setParamsFromParamId(train, 100);
         }
-        System.out.println(String.format(", bsfParamId %d - %s, bsfAcc %.5f, took %.5f s", bsfParamId,
+        printlnProgress(String.format(", bsfParamId %d - %s, bsfAcc %.5f, took %.5f s", bsfParamId,
                 getParamInformationString(), bsfAcc, cvTime));
 
         return bsfaccAndPreds;
     }
 
+    interface ParamEvaluator {
+        double[] evaluate(OneNearestNeighbour classifier, int paramId) throws Exception;
+    }
+
+    /**
+     * Evaluate every parameter ID, at the same time on several threads if more than one thread is used.
+     * The params, the training set and the query bounds are fields of the classifier, so each parameter ID
+     * is evaluated on its own copy of the classifier. The results are indexed by parameter ID,
+     * so picking the best one in order gives the same param and predictions as with a single thread.
+     *
+     * @param evaluator LOOCV of a classifier for a parameter ID
+     * @return accuracy and predictions for each parameter ID, only the first one if LOOCV is not allowed
+     */
+    private double[][] sweepParams(final ParamEvaluator evaluator) throws Exception {
+        final double[][] sweep = new double[this.allowLoocv ? nParams : 1][];
+        if (numThreads <= 1 || sweep.length == 1) {
+            for (int paramId = 0; paramId < sweep.length; paramId++) {
+                printProgress(".");
+                sweep[paramId] = evaluator.evaluate(this, paramId);
+            }
+            return sweep;
+        }
+
+        if (pool == null) pool = new ForkJoinPool(numThreads);
+        // the progress is printed from this thread as the parameter IDs complete
+        final CompletionService<Void> completion = new ExecutorCompletionService<>(pool);
+        for (int paramId = 0; paramId < sweep.length; paramId++) {
+            final int id = paramId;
+            completion.submit(() -> {
+                sweep[id] = evaluator.evaluate(copy(), id);
+                return null;
+            });
+        }
+        for (int done = 0; done < sweep.length; done++) {
+            try {
+                completion.take().get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                throw new Exception(e.getCause());
+            }
+            printProgress(".");
+        }
+        return sweep;
+    }
+
+    /**
+     * Copy of the classifier sharing the training data and cache, for a parameter ID evaluated on another thread
+     */
+    private OneNearestNeighbour copy() {
+        try {
+            final OneNearestNeighbour copy = (OneNearestNeighbour) super.clone();
+            copy.pool = null;
+            copy.searchBounds = null;
+            copy.searchOrder = null;
+            copy.searchBuffer = null;
+            copy.queryBuffers = null;
+            copy.excludedIndex = -1;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private double[] loocvAccAndPreds(Instances train, int paramId) throws Exception {
         if (this.allowLoocv) {
             this.setParamsFromParamId(train, paramId);
@@ -264,24 +505,25 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
             this.setParamsFromParamId(train, 100);
         }
 
-        Instances trainLoocv;
         Instance testLoocv;
 
         int correct = 0;
         double pred, actual;
 
+        // classify each sequence against the whole training set without itself
+        this.buildClassifier(train);
         double[] accAndPreds = new double[train.numInstances() + 1];
         for (int i = 0; i < train.numInstances(); i++) {
-            trainLoocv = new Instances(train);
-            testLoocv = trainLoocv.remove(i);
+            testLoocv = train.instance(i);
             actual = testLoocv.classValue();
-            this.buildClassifier(trainLoocv);
+            excludedIndex = i;
             pred = this.classifyInstance(testLoocv);
             if (pred == actual) {
                 correct++;
             }
             accAndPreds[i + 1] = pred;
         }
+        excludedIndex = -1;
         accAndPreds[0] = (double) correct / train.numInstances();
 
         return accAndPreds;
@@ -294,26 +536,27 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
             this.setParamsFromParamId(train, 100);
         }
 
-        Instances trainLoocv;
         Instance testLoocv;
 
         int correct = 0;
         double pred, actual;
 
+        // classify each sequence against the whole training set without itself
+        this.buildClassifier(train);
         double[] accAndPreds = new double[train.numInstances() + 1];
         for (int i = 0; i < train.numInstances(); i++) {
             queryMax = trainCache.getMax(i);
             queryMin = trainCache.getMin(i);
-            trainLoocv = new Instances(train);
-            testLoocv = trainLoocv.remove(i);
+            testLoocv = train.instance(i);
             actual = testLoocv.classValue();
-            this.buildClassifier(trainLoocv);
+            excludedIndex = i;
             pred = this.classifyWithLowerBound(testLoocv);
             if (pred == actual) {
                 correct++;
             }
             accAndPreds[i + 1] = pred;
         }
+        excludedIndex = -1;
         accAndPreds[0] = (double) correct / train.numInstances();
 
         return accAndPreds;
@@ -322,7 +565,6 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
     public double[] loocvEstimate(Instances train, double timeLimit, int instanceLimit) throws Exception {
         long start = System.nanoTime();
         boolean OVERTIME = false;
-        Instances trainLoocv;
         Instance testLoocv;
 
         int[] correct = new int[nParams];
@@ -330,12 +572,13 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
 
         double[][] accAndPreds = new double[nParams][train.numInstances() + 1];
         int i;
-        System.out.print(String.format("[1-NN] Estimating LOOCV for %s with %d instances and %.3e s", this.toString(), instanceLimit, timeLimit));
+        printProgress(String.format("[1-NN] Estimating LOOCV for %s with %d instances and %.3e s", this.toString(), instanceLimit, timeLimit));
+        // classify each sequence against the whole training set without itself
+        this.buildClassifier(train);
         for (i = 0; i < train.numInstances(); i++) {
-            trainLoocv = new Instances(train);
-            testLoocv = trainLoocv.remove(i);
+            testLoocv = train.instance(i);
             actual = testLoocv.classValue();
-            this.buildClassifier(trainLoocv);
+            excludedIndex = i;
             for (int paramId = 0; paramId < nParams; paramId++) {
                 if (this.allowLoocv) {
                     this.setParamsFromParamId(train, paramId);
@@ -352,11 +595,12 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
                 }
             }
             if ((System.nanoTime() - start) >= timeLimit && i >= instanceLimit) {
-                System.out.println("[1-NN] Overtime --> kill");
+                printlnProgress("[1-NN] Overtime --> kill");
                 OVERTIME = true;
                 break;
             }
         }
+        excludedIndex = -1;
         bsfParamId = -1;
         double bsfAcc = -1;
         double[] bsfaccAndPreds = null;
@@ -381,7 +625,7 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         } else {
             this.setParamsFromParamId(train, 100);
         }
-        System.out.println(String.format(", bsfParamId %d - %s, bsfAcc %.5f, took %.5f s", bsfParamId,
+        printlnProgress(String.format(", bsfParamId %d - %s, bsfAcc %.5f, took %.5f s", bsfParamId,
                 getParamInformationString(), bsfAcc, cvTime));
 
         return bsfaccAndPreds;
@@ -390,7 +634,6 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
     public double[] loocvEstimateWithLowerBound(Instances train, double timeLimit, int instanceLimit) throws Exception {
         long start = System.nanoTime();
         boolean OVERTIME = false;
-        Instances trainLoocv;
         Instance testLoocv;
 
         int[] correct = new int[nParams];
@@ -398,14 +641,15 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
 
         double[][] accAndPreds = new double[nParams][train.numInstances() + 1];
         int i;
-        System.out.print(String.format("[1-NN] Estimating LOOCV with Lower Bound for %s with %d instances and %.3e s", this.toString(), instanceLimit, timeLimit));
+        printProgress(String.format("[1-NN] Estimating LOOCV with Lower Bound for %s with %d instances and %.3e s", this.toString(), instanceLimit, timeLimit));
+        // classify each sequence against the whole training set without itself
+        this.buildClassifier(train);
         for (i = 0; i < train.numInstances(); i++) {
             queryMax = trainCache.getMax(i);
             queryMin = trainCache.getMin(i);
-            trainLoocv = new Instances(train);
-            testLoocv = trainLoocv.remove(i);
+            testLoocv = train.instance(i);
             actual = testLoocv.classValue();
-            this.buildClassifier(trainLoocv);
+            excludedIndex = i;
             for (int paramId = 0; paramId < nParams; paramId++) {
                 if (this.allowLoocv) {
                     this.setParamsFromParamId(train, paramId);
@@ -422,11 +666,12 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
                 }
             }
             if ((System.nanoTime() - start) >= timeLimit && i >= instanceLimit) {
-                System.out.println("[1-NN] Overtime --> kill");
+                printlnProgress("[1-NN] Overtime --> kill");
                 OVERTIME = true;
                 break;
             }
         }
+        excludedIndex = -1;
         bsfParamId = -1;
         double bsfAcc = -1;
         double[] bsfaccAndPreds = null;
@@ -450,12 +695,31 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         } else {
             this.setParamsFromParamId(train, 100);
         }
-        System.out.println(String.format(", bsfParamId %d - %s, bsfAcc %.5f, took %.5f s", bsfParamId,
+        printlnProgress(String.format(", bsfParamId %d - %s, bsfAcc %.5f, took %.5f s", bsfParamId,
                 getParamInformationString(), bsfAcc, cvTime));
 
         return bsfaccAndPreds;
     }
 
+    /**
+     * Run the task for each previous sequence of current, in parallel if more than one thread is used.
+     * The task for a previous sequence must only update its own challenger and nearest neighbour,
+     * so the table is the same as with a single thread.
+     *
+     * @param current index of the current sequence
+     * @param task    task taking the index of a previous sequence
+     */
+    void forEachPrevious(final int current, final IntConsumer task) {
+        if (numThreads > 1 && current >= minParallelPrevious) {
+            if (pool == null) pool = new ForkJoinPool(numThreads);
+            pool.submit(() -> IntStream.range(0, current).parallel().forEach(task)).join();
+        } else {
+            for (int previous = 0; previous < current; ++previous) {
+                task.accept(previous);
+            }
+        }
+    }
+
     public abstract void initFastWWS(Instances train, SequenceStatsCache cache);
 
     public abstract void initFastWWS(Instances train, SequenceStatsCache cache, int n);
@@ -474,10 +738,10 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         bsfParamId = -1;                        // best so far parameter ID
         double bsfAcc = -1;                     // best so far accuracy
         double[] bsfaccAndPreds = null;         // best so far accuracy and class predictions
-        System.out.print("[1-NN] FastWWS for " + this.toString() + ", param ");
+        printProgress("[1-NN] FastWWS for " + this.toString() + ", param ");
         // go through all the parameters
         for (int paramId = 0; paramId < nParams; paramId++) {
-            System.out.print(".");
+            printProgress(".");
             accAndPreds = fastWWSAccAndPred(train, paramId, train.numInstances());
             if (accAndPreds[0] > bsfAcc) {
                 bsfAcc = accAndPreds[0];
@@ -498,7 +762,7 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         } else {
             this.setParamsFromParamId(train, 100);
         }
-        System.out.println(", bsfParamId " + bsfParamId + " - " + getParamInformationString() +
+        printlnProgress(", bsfParamId " + bsfParamId + " - " + getParamInformationString() +
                 ", bsfAcc " + df.format(bsfAcc) + ", took " + cvTime + "s");
 
         return bsfaccAndPreds;
@@ -508,16 +772,18 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         long start = System.nanoTime();
         double[] accAndPreds;
         maxWindow = train.numAttributes() - 1;
-        train.randomize(new Random(trainResample));
+        final int[] order = new int[train.numInstances()];
+        train = shuffledCopy(train, order);
+        trainCache = new SequenceStatsCache(train, train.numAttributes() - 1);   // the cache follows the new order
         initFastWWS(train, trainCache, n);           // initialise nearest neighbour table
 
         bsfParamId = -1;                        // best so far parameter ID
         double bsfAcc = -1;                     // best so far accuracy
         double[] bsfaccAndPreds = null;         // best so far accuracy and class predictions
-        System.out.print("[1-NN] FastWWS for " + this.toString() + ", param ");
+        printProgress("[1-NN] FastWWS for " + this.toString() + ", param ");
         // go through all the parameters
         for (int paramId = 0; paramId < nParams; paramId++) {
-            System.out.print(".");
+            printProgress(".");
             accAndPreds = fastWWSAccAndPred(train, paramId, n);
             if (accAndPreds[0] > bsfAcc) {
                 bsfAcc = accAndPreds[0];
@@ -538,10 +804,10 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         } else {
             this.setParamsFromParamId(train, 100);
         }
-        System.out.println(", bsfParamId " + bsfParamId + " - " + getParamInformationString() +
+        printlnProgress(", bsfParamId " + bsfParamId + " - " + getParamInformationString() +
                 ", bsfAcc " + df.format(bsfAcc) + ", took " + cvTime + "s");
 
-        return bsfaccAndPreds;
+        return inTrainOrder(bsfaccAndPreds, order);
     }
 
     public double[] fastWWSAccAndPred(Instances train, int paramId, int n) {
@@ -556,7 +822,7 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         double[] accAndPreds = new double[n + 1];
         for (int i = 0; i < n; i++) {
             actual = train.instance(i).classValue();
-            pred = train.instance(nns[paramId][i].index).classValue();
+            pred = train.instance(nns.getIndex(paramId, i)).classValue();
             if (pred == actual) {
                 correct++;
             }
@@ -577,10 +843,10 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         bsfParamId = -1;                        // best so far parameter ID
         double bsfAcc = -1;                     // best so far accuracy
         double[] bsfaccAndPreds = null;         // best so far accuracy and class predictions
-        System.out.print("[1-NN] FastWWS for " + this.toString() + ", param ");
+        printProgress("[1-NN] FastWWS for " + this.toString() + ", param ");
         // go through all the parameters
         for (int paramId = 0; paramId < nParams; paramId++) {
-            System.out.print(".");
+            printProgress(".");
             accAndPreds = fastWWSAccAndPredEstimate(train, paramId);
             if (accAndPreds[0] > bsfAcc) {
                 bsfAcc = accAndPreds[0];
@@ -606,7 +872,7 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         if (this.allowLoocv) {
             this.setParamsFromParamId(train, bsfParamId);
         }
-        System.out.println(String.format(", bsfParamId %d - %s, bsfAcc %.5f, took %.5f s", bsfParamId,
+        printlnProgress(String.format(", bsfParamId %d - %s, bsfAcc %.5f, took %.5f s", bsfParamId,
                 getParamInformationString(), bsfAcc, cvTime));
 
         return bsfaccAndPreds;
@@ -618,9 +884,9 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
 
         double[] accAndPreds = new double[train.numInstances() + 1];
         for (int i = 0; i < train.numInstances(); i++) {
-            if (nns[paramId][i].index >= 0) {
+            if (nns.getIndex(paramId, i) >= 0) {
                 actual = train.instance(i).classValue();
-                pred = train.instance(nns[paramId][i].index).classValue();
+                pred = train.instance(nns.getIndex(paramId, i)).classValue();
                 if (pred == actual) {
                     correct++;
                 }
@@ -636,20 +902,22 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         if (this.classifierIdentifier.contains("R1")) {
             this.classifierIdentifier = this.classifierIdentifier.replace("R1", "Rn");
         }
-        train.randomize(new Random(trainResample));
+        final int[] order = new int[train.numInstances()];
+        train = shuffledCopy(train, order);
         long start = System.nanoTime();
         double[] accAndPreds;
         maxWindow = train.numAttributes() - 1;
+        trainCache = new SequenceStatsCache(train, train.numAttributes() - 1);   // the cache follows the new order
 
         initFastWWSApproximate(train, trainCache, nSamples);           // initialise nearest neighbour table
 
         bsfParamId = -1;                        // best so far parameter ID
         double bsfAcc = -1;                     // best so far accuracy
         double[] bsfaccAndPreds = null;         // best so far accuracy and class predictions
-        System.out.print("[1-NN] FastWWS for " + this.toString() + ", param ");
+        printProgress("[1-NN] FastWWS for " + this.toString() + ", param ");
         // go through all the parameters
         for (int paramId = 0; paramId < nParams; paramId++) {
-            System.out.print(".");
+            printProgress(".");
             accAndPreds = fastWWSAccAndPredApproximate(train, paramId, nSamples);
             if (accAndPreds[0] > bsfAcc) {
                 bsfAcc = accAndPreds[0];
@@ -668,10 +936,10 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         if (this.allowLoocv) {
             this.setParamsFromParamId(train, bsfParamId);
         }
-        System.out.println(", bsfParamId " + bsfParamId + " - " + getParamInformationString() +
+        printlnProgress(", bsfParamId " + bsfParamId + " - " + getParamInformationString() +
                 ", bsfAcc " + df.format(bsfAcc) + ", took " + cvTime + "s");
 
-        return bsfaccAndPreds;
+        return inTrainOrder(bsfaccAndPreds, order);
     }
 
     public double[] fastWWSAccAndPredApproximate(Instances train, int paramId, int nSamples) {
@@ -681,7 +949,7 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         double[] accAndPreds = new double[nSamples + 1];
         for (int i = 0; i < nSamples; i++) {
             actual = train.instance(i).classValue();
-            pred = train.instance(nns[paramId][i].index).classValue();
+            pred = train.instance(nns.getIndex(paramId, i)).classValue();
             if (pred == actual) {
                 correct++;
             }
@@ -707,8 +975,21 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         approxSamples = nSamples;
     }
 
+    public void setNumThreads(int numThreads) {
+        numThreads = Math.max(1, numThreads);
+        if (this.numThreads != numThreads && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
     public void setTrain(Instances train) {
-        this.train = train;
+        setTrainData(train);
         U = new double[train.numAttributes() - 1];
         L = new double[train.numAttributes() - 1];
     }
@@ -734,7 +1015,7 @@ public abstract class OneNearestNeighbour extends AbstractClassifier {
         return cvTime;
     }
 
-    public PotentialNN[][] getNns() {
+    public NNTable getNns() {
         return nns;
     }
 
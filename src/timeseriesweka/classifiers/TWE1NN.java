@@ -12,9 +12,12 @@
 package timeseriesweka.classifiers;
 
 import development.DataSets;
+import timeseriesweka.datasets.TimeSeriesDataset;
+import timeseriesweka.elasticDistances.DistanceWorkspace;
 import timeseriesweka.elasticDistances.LazyAssessNN;
+import timeseriesweka.elasticDistances.LazyAssessNNPool;
 import timeseriesweka.elasticDistances.TWED;
-import timeseriesweka.fastWWS.PotentialNN;
+import timeseriesweka.fastWWS.NNTable;
 import timeseriesweka.fastWWS.SequenceStatsCache;
 import timeseriesweka.lowerBounds.LbTwed;
 import utilities.ClassifierTools;
@@ -23,8 +26,6 @@ import weka.core.Instances;
 
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
 
 /**
  * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
@@ -69,100 +70,85 @@ public class TWE1NN extends OneNearestNeighbour {
 
         // We need N*L storing area. We favorite an access per window size.
         // For each [Window Size][sequence], we store the nearest neighbour. See above.
-        nns = new PotentialNN[nParams][train.numInstances()];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < train.numInstances(); ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, train.numInstances());
 
         // Vector of lazyAssessNNS lbKeogh, propagating bound info "horizontally"
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
         // "Challengers" that compete with each other to be the NN of query
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is reference)
-        for (int current = 1; current < train.numInstances(); ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
+        for (int i = 1; i < train.numInstances(); ++i) {
+            final int current = i;
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = 0; paramId < nParams; ++paramId) {
+            for (int p = 0; p < nParams; ++p) {
+                final int paramId = p;
 
                 setParamsFromParamId(train, paramId);
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have NN for sure, but we still have to check if current is new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have NN yet.
                     // Sort the challengers so we have better chance to organize good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            currPNN.set(previous, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, d, NNTable.Status.BC);
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
-                    nns[paramId][current].set(index, d, PotentialNN.Status.NN);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
+                    nns.set(paramId, current, index, d, NNTable.Status.NN);
                 }
             }
         }
@@ -176,100 +162,85 @@ public class TWE1NN extends OneNearestNeighbour {
 
         // We need N*L storing area. We favorite an access per window size.
         // For each [Window Size][sequence], we store the nearest neighbour. See above.
-        nns = new PotentialNN[nParams][n];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < n; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, n);
 
         // Vector of lazyAssessNNS lbKeogh, propagating bound info "horizontally"
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[n];
-        for (int i = 0; i < n; ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, n);
         // "Challengers" that compete with each other to be the NN of query
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is reference)
-        for (int current = 1; current < n; ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
+        for (int i = 1; i < n; ++i) {
+            final int current = i;
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = 0; paramId < nParams; ++paramId) {
+            for (int p = 0; p < nParams; ++p) {
+                final int paramId = p;
 
                 setParamsFromParamId(train, paramId);
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have NN for sure, but we still have to check if current is new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have NN yet.
                     // Sort the challengers so we have better chance to organize good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            currPNN.set(previous, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, d, NNTable.Status.BC);
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
-                    nns[paramId][current].set(index, d, PotentialNN.Status.NN);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
+                    nns.set(paramId, current, index, d, NNTable.Status.NN);
                 }
             }
         }
@@ -283,33 +254,21 @@ public class TWE1NN extends OneNearestNeighbour {
 
         // We need N*L storing area. We favorite an access per window size.
         // For each [Window Size][sequence], we store the nearest neighbour. See above.
-        nns = new PotentialNN[nParams][train.numInstances()];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < train.numInstances(); ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, train.numInstances());
 
         // Vector of lazyAssessNNS lbKeogh, propagating bound info "horizontally"
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
         // "Challengers" that compete with each other to be the NN of query
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
 
         int current;
         // Iteration for all TS, starting with the second one (first is reference)
         for (current = 1; current < train.numInstances(); ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setForTWED(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setForTWED(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
@@ -317,72 +276,65 @@ public class TWE1NN extends OneNearestNeighbour {
 
                 setParamsFromParamId(train, paramId);
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have NN for sure, but we still have to check if current is new NN for previous
                     for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
                     }
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have NN yet.
                     // Sort the challengers so we have better chance to organize good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            currPNN.set(previous, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, d, NNTable.Status.BC);
                         }
 
                         // --- Now check for previous NN
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
+                        toBeat = nns.getDistance(paramId, previous);
+                        challenger = lazyAssessNNS.get(previous);
                         rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
                     }
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
-                    nns[paramId][current].set(index, d, PotentialNN.Status.NN);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
+                    nns.set(paramId, current, index, d, NNTable.Status.NN);
                 }
             }
             double timeNow = (System.nanoTime() - start);
             if (timeNow >= timeLimit && current >= instanceLimit) {
-                System.out.println("Overtime");
+                printlnProgress("Overtime");
                 break;
             }
             if (current == 10) timePrev = timeNow;
@@ -398,81 +350,65 @@ public class TWE1NN extends OneNearestNeighbour {
 
         // We need N*L storing area. We favorite an access per window size.
         // For each [Window Size][sequence], we store the nearest neighbour. See above.
-        nns = new PotentialNN[nParams][nSamples];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < nSamples; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, nSamples);
 
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is reference)
         for (int current = 0; current < nSamples; ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < train.numInstances(); ++previous) {
                 if (previous == current) continue;
 
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
             for (int paramId = 0; paramId < nParams; ++paramId) {
                 setParamsFromParamId(train, paramId);
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                Collections.sort(challengers);
+                lazyAssessNNS.sort();
                 boolean newNN = false;
-                for (LazyAssessNN challenger : challengers) {
+                for (LazyAssessNN challenger : lazyAssessNNS) {
                     // --- Get the data
                     int previous = challenger.indexQuery;
                     if (previous == current) previous = challenger.indexReference;
-                    if (previous == currPNN.index) continue;
+                    if (previous == nns.getIndex(paramId, current)) continue;
 
                     // --- First we want to beat the current best candidate:
-                    double toBeat = currPNN.distance;
+                    double toBeat = nns.getDistance(paramId, current);
                     LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
 
                     // --- Check the result
                     if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                         double d = challenger.getDistance();
-                        currPNN.set(previous, d, PotentialNN.Status.BC);
+                        nns.set(paramId, current, previous, d, NNTable.Status.BC);
                         newNN = true;
                     }
 
                     if (previous < nSamples) {
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- Now check for previous NN
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
+                        toBeat = nns.getDistance(paramId, previous);
+                        challenger = lazyAssessNNS.get(previous);
                         rrt = challenger.tryToBeatTWED(toBeat, nu, lambda);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
                     }
                 }
 
                 if (newNN) {
-                    double d = currPNN.distance;
-                    int index = currPNN.index;
-                    nns[paramId][current].set(index, d, PotentialNN.Status.NN);
+                    double d = nns.getDistance(paramId, current);
+                    int index = nns.getIndex(paramId, current);
+                    nns.set(paramId, current, index, d, NNTable.Status.NN);
                 }
             }
         }
@@ -503,73 +439,42 @@ public class TWE1NN extends OneNearestNeighbour {
         return TWED.distance(first, second, nu, lambda);
     }
 
+    public final double distance(Instance first, Instance second, double cutOffValue) {
+        return TWED.distance(first, second, nu, lambda, cutOffValue);
+    }
+
+    public final double distance(double[] query, double[] data, int offset, int length) {
+        return TWED.distance(query, 0, query.length, data, offset, length, nu, lambda, DistanceWorkspace.local());
+    }
+
+    public final double distance(double[] query, double[] data, int offset, int length, double cutOffValue) {
+        return TWED.distance(query, 0, query.length, data, offset, length, nu, lambda, cutOffValue, DistanceWorkspace.local());
+    }
+
     public final double lowerbound(Instance q, Instance c, double queryMax, double queryMin, double nu, double lambda) {
         return LbTwed.distance(q, c, queryMax, queryMin, nu, lambda);
     }
 
     @Override
     public double classifyInstance(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-
-        double thisDist;
-
-        for (Instance i : this.train) {
-            thisDist = distance(instance, i);
-            if (thisDist < bsfDistance) {
-                bsfDistance = thisDist;
-                classCounts = new int[train.numClasses()];
-                classCounts[(int) i.classValue()]++;
-            } else if (thisDist == bsfDistance) {
-                classCounts[(int) i.classValue()]++;
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        return search((j, cutOffValue) -> distance(query, data, trainData.offset(j), length, cutOffValue));
     }
 
     @Override
     public double classifyWithLowerBound(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-
-        double thisDist, lbDist;
-
-        for (Instance i : this.train) {
-            lbDist = LbTwed.distance(instance, i, this.queryMax, this.queryMin, this.nu, this.lambda, bsfDistance);
-            if (lbDist < bsfDistance) {
-                thisDist = distance(instance, i);
-                if (thisDist < bsfDistance) {
-                    bsfDistance = thisDist;
-                    classCounts = new int[train.numClasses()];
-                    classCounts[(int) i.classValue()]++;
-                } else if (thisDist == bsfDistance) {
-                    classCounts[(int) i.classValue()]++;
-                }
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        final double[] U = queryBuffer(0, query.length);
+        final double[] L = queryBuffer(1, query.length);
+        LbTwed.fillUL(query, 0, query.length, nu, U, L);
+
+        return searchWithLowerBound(
+                j -> LbTwed.distance(query, 0, data, trainData.offset(j), length, U, L, this.queryMax, this.queryMin, this.nu, this.lambda, Double.POSITIVE_INFINITY),
+                (j, cutOffValue) -> distance(query, data, trainData.offset(j), length, cutOffValue));
     }
 
     @Override
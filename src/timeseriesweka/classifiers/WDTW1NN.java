@@ -12,10 +12,14 @@
 package timeseriesweka.classifiers;
 
 import development.DataSets;
+import timeseriesweka.datasets.TimeSeriesDataset;
+import timeseriesweka.elasticDistances.DistanceWorkspace;
 import timeseriesweka.elasticDistances.LazyAssessNN;
+import timeseriesweka.elasticDistances.LazyAssessNNPool;
 import timeseriesweka.elasticDistances.WDTW;
-import timeseriesweka.fastWWS.PotentialNN;
+import timeseriesweka.fastWWS.NNTable;
 import timeseriesweka.fastWWS.SequenceStatsCache;
+import timeseriesweka.lowerBounds.LbKim;
 import timeseriesweka.lowerBounds.LbWdtw;
 import utilities.ClassifierTools;
 import weka.core.Attribute;
@@ -76,105 +80,90 @@ public class WDTW1NN extends OneNearestNeighbour {
 
         // We need the N*L storing area. We favorite an access per window size.
         // For each [Window Size][sequence], we store the nearest neighbour. See above.
-        nns = new PotentialNN[nParams][train.numInstances()];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < train.numInstances(); ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, train.numInstances());
         vectorCreated = new boolean[nParams];
         weightVectors = new double[nParams][maxWindow];
 
         // Vector of lazyAssessNNS lbKeogh, propagating bound info "horizontally"
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
         // "Challengers" that compete with each other to be the NN of query
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is the reference)
-        for (int current = 1; current < train.numInstances(); ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
+        for (int i = 1; i < train.numInstances(); ++i) {
+            final int current = i;
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = nParams - 1; paramId > -1; --paramId) {
+            for (int p = nParams - 1; p > -1; --p) {
+                final int paramId = p;
 
                 setParamsFromParamId(train, paramId);
                 if (!vectorCreated[paramId]) {
-                    initWeights(sCurrent.numAttributes() - 1);
+                    initWeights(train.numAttributes() - 1);
                     weightVectors[paramId] = weightVector;
                     vectorCreated[paramId] = true;
                 }
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have the NN for sure, but we still have to check if current is the new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have the NN yet.
                     // Sort the challengers so we have the better chance to organize the good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            currPNN.set(previous, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, d, NNTable.Status.BC);
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    nns[paramId][current].set(currPNN.index, currPNN.distance, PotentialNN.Status.NN);
+                    nns.set(paramId, current, nns.getIndex(paramId, current), nns.getDistance(paramId, current), NNTable.Status.NN);
                 }
             }
         }
@@ -188,105 +177,90 @@ public class WDTW1NN extends OneNearestNeighbour {
 
         // We need the N*L storing area. We favorite an access per window size.
         // For each [Window Size][sequence], we store the nearest neighbour. See above.
-        nns = new PotentialNN[nParams][n];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < n; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, n);
         vectorCreated = new boolean[nParams];
         weightVectors = new double[nParams][maxWindow];
 
         // Vector of lazyAssessNNS lbKeogh, propagating bound info "horizontally"
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[n];
-        for (int i = 0; i < n; ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, n);
         // "Challengers" that compete with each other to be the NN of query
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(n);
 
         // Iteration for all TS, starting with the second one (first is the reference)
-        for (int current = 1; current < n; ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
+        for (int i = 1; i < n; ++i) {
+            final int current = i;
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
-            for (int paramId = nParams - 1; paramId > -1; --paramId) {
+            for (int p = nParams - 1; p > -1; --p) {
+                final int paramId = p;
 
                 setParamsFromParamId(train, paramId);
                 if (!vectorCreated[paramId]) {
-                    initWeights(sCurrent.numAttributes() - 1);
+                    initWeights(train.numAttributes() - 1);
                     weightVectors[paramId] = weightVector;
                     vectorCreated[paramId] = true;
                 }
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have the NN for sure, but we still have to check if current is the new NN for previous
-                    for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have the NN yet.
                     // Sort the challengers so we have the better chance to organize the good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            currPNN.set(previous, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, d, NNTable.Status.BC);
                         }
+                    }
 
-                        // --- Now check for previous NN
+                    // --- Now check for previous NN, each previous only uses its own challenger
+                    forEachPrevious(current, previous -> {
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
-                        rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
+                        LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
-                    }
+                    });
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    nns[paramId][current].set(currPNN.index, currPNN.distance, PotentialNN.Status.NN);
+                    nns.set(paramId, current, nns.getIndex(paramId, current), nns.getDistance(paramId, current), NNTable.Status.NN);
                 }
             }
         }
@@ -300,36 +274,24 @@ public class WDTW1NN extends OneNearestNeighbour {
 
         // We need N*L storing area. We favorite an access per window size.
         // For each [Window Size][sequence], we store the nearest neighbour. See above.
-        nns = new PotentialNN[nParams][train.numInstances()];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < train.numInstances(); ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, train.numInstances());
         vectorCreated = new boolean[nParams];
         weightVectors = new double[nParams][maxWindow];
 
         // Vector of lazyAssessNNS lbKeogh, propagating bound info "horizontally"
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
         // "Challengers" that compete with each other to be the NN of query
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
 
         int current;
         timePrev = 0;
         // Iteration for all TS, starting with the second one (first is the reference)
         for (current = 1; current < train.numInstances(); ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < current; ++previous) {
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
@@ -337,75 +299,68 @@ public class WDTW1NN extends OneNearestNeighbour {
 
                 setParamsFromParamId(train, paramId);
                 if (!vectorCreated[paramId]) {
-                    initWeights(sCurrent.numAttributes() - 1);
+                    initWeights(train.numAttributes() - 1);
                     weightVectors[paramId] = weightVector;
                     vectorCreated[paramId] = true;
                 }
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                if (currPNN.isNN()) {
+                if (nns.isNN(paramId, current)) {
                     // --- --- WITH NN CASE --- ---
                     // We already have the NN for sure, but we still have to check if current is the new NN for previous
                     for (int previous = 0; previous < current; ++previous) {
-                        // --- Get the data
-                        PotentialNN prevNN = nns[paramId][previous];
-
                         // --- Try to beat the previous best NN
-                        double toBeat = prevNN.distance;
-                        LazyAssessNN challenger = lazyAssessNNS[previous];
+                        double toBeat = nns.getDistance(paramId, previous);
+                        LazyAssessNN challenger = lazyAssessNNS.get(previous);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
                     }
                 } else {
                     // --- --- WITHOUT NN CASE --- ---
                     // We don't have NN yet.
                     // Sort the challengers so we have the better chance to organize the good pruning.
-                    Collections.sort(challengers);
+                    lazyAssessNNS.sort();
 
-                    for (LazyAssessNN challenger : challengers) {
+                    for (LazyAssessNN challenger : lazyAssessNNS) {
                         // --- Get the data
                         int previous = challenger.indexQuery;
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- First we want to beat the current best candidate:
-                        double toBeat = currPNN.distance;
+                        double toBeat = nns.getDistance(paramId, current);
                         LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            currPNN.set(previous, d, PotentialNN.Status.BC);
+                            nns.set(paramId, current, previous, d, NNTable.Status.BC);
                         }
 
                         // --- Now check for previous NN
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
+                        toBeat = nns.getDistance(paramId, previous);
+                        challenger = lazyAssessNNS.get(previous);
                         rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
                     }
 
                     // --- When we looked at every past sequences,
                     // the current best candidate is really the best one, so the NN.
                     // So assign the current NN to all the windows that are valid
-                    nns[paramId][current].set(currPNN.index, currPNN.distance, PotentialNN.Status.NN);
+                    nns.set(paramId, current, nns.getIndex(paramId, current), nns.getDistance(paramId, current), NNTable.Status.NN);
                 }
             }
             double timeNow = (System.nanoTime() - start);
             if (timeNow >= timeLimit && current >= instanceLimit) {
-                System.out.println("Overtime");
+                printlnProgress("Overtime");
                 break;
             }
             if (current == 10) timePrev = timeNow;
@@ -419,79 +374,63 @@ public class WDTW1NN extends OneNearestNeighbour {
             System.err.println("Set is to small: " + train.numInstances() + " sequence. At least 2 sequences needed.");
         }
 
-        nns = new PotentialNN[nParams][nSamples];
-        for (int paramId = 0; paramId < nParams; ++paramId) {
-            for (int len = 0; len < nSamples; ++len) {
-                nns[paramId][len] = new PotentialNN();
-            }
-        }
+        nns = new NNTable(nParams, nSamples);
         vectorCreated = new boolean[nParams];
         weightVectors = new double[nParams][maxWindow];
 
-        LazyAssessNN[] lazyAssessNNS = new LazyAssessNN[train.numInstances()];
-        for (int i = 0; i < train.numInstances(); ++i) {
-            lazyAssessNNS[i] = new LazyAssessNN(cache);
-        }
-        ArrayList<LazyAssessNN> challengers = new ArrayList<>(train.numInstances());
+        LazyAssessNNPool lazyAssessNNS = new LazyAssessNNPool(cache, train.numInstances());
 
         // Iteration for all TS, starting with the second one (first is the reference)
         for (int current = 0; current < nSamples; ++current) {
-            // --- --- Get the data --- ---
-            Instance sCurrent = train.instance(current);
-
             // Clear off the previous challengers and add all the previous sequences
-            challengers.clear();
+            lazyAssessNNS.clear();
             for (int previous = 0; previous < train.numInstances(); ++previous) {
                 if (previous == current) continue;
 
-                LazyAssessNN d = lazyAssessNNS[previous];
-                d.setWoutKim(train.instance(previous), previous, sCurrent, current);
-                challengers.add(d);
+                LazyAssessNN d = lazyAssessNNS.get(previous);
+                d.setWoutKim(previous, current);
+                lazyAssessNNS.add(previous);
             }
 
             // --- --- For each, decreasing (positive) windows --- ---
             for (int paramId = nParams - 1; paramId > -1; --paramId) {
                 setParamsFromParamId(train, paramId);
                 if (!vectorCreated[paramId]) {
-                    initWeights(sCurrent.numAttributes() - 1);
+                    initWeights(train.numAttributes() - 1);
                     weightVectors[paramId] = weightVector;
                     vectorCreated[paramId] = true;
                 }
 
-                // --- Get the data
-                PotentialNN currPNN = nns[paramId][current];
-
-                Collections.sort(challengers);
+                lazyAssessNNS.sort();
 
-                for (LazyAssessNN challenger : challengers) {
+                for (LazyAssessNN challenger : lazyAssessNNS) {
                     // --- Get the data
                     int previous = challenger.indexQuery;
                     if (previous == current) previous = challenger.indexReference;
-                    if (previous == currPNN.index) continue;
+                    if (previous == nns.getIndex(paramId, current)) continue;
 
                     // --- First we want to beat the current best candidate:
-                    double toBeat = currPNN.distance;
+                    double toBeat = nns.getDistance(paramId, current);
                     LazyAssessNN.RefineReturnType rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
 
                     // --- Check the result
                     if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                         double d = challenger.getDistance();
-                        currPNN.set(previous, d, PotentialNN.Status.BC);
+                        nns.set(paramId, current, previous, d, NNTable.Status.BC);
                     }
 
                     if (previous < nSamples) {
-                        PotentialNN prevNN = nns[paramId][previous];
 
                         // --- Now check for previous NN
                         // --- Try to beat the previous best NN
-                        toBeat = prevNN.distance;
-                        challenger = lazyAssessNNS[previous];
+                        toBeat = nns.getDistance(paramId, previous);
+                        challenger = lazyAssessNNS.get(previous);
                         rrt = challenger.tryToBeatWDTW(toBeat, weightVectors[paramId]);
 
                         // --- Check the result
                         if (rrt == LazyAssessNN.RefineReturnType.New_best) {
                             double d = challenger.getDistance();
-                            prevNN.set(current, d, PotentialNN.Status.NN);
+                            nns.set(paramId, previous, current, d, NNTable.Status.NN);
                         }
                     }
                 }
@@ -520,6 +459,14 @@ public class WDTW1NN extends OneNearestNeighbour {
         return WDTW.distance(first, second, weightVector, cutOffValue);
     }
 
+    public final double distance(double[] query, double[] data, int offset, int length) {
+        return WDTW.distance(query, 0, query.length, data, offset, length, weightVector, DistanceWorkspace.local());
+    }
+
+    public final double distance(double[] query, double[] data, int offset, int length, double cutOffValue) {
+        return WDTW.distance(query, 0, query.length, data, offset, length, weightVector, cutOffValue, DistanceWorkspace.local());
+    }
+
     public final double lowerbound(Instance c, double queryMax, double queryMin) {
         if (refreshWeights) {
             initWeights(c.numAttributes() - 1);
@@ -529,75 +476,38 @@ public class WDTW1NN extends OneNearestNeighbour {
 
     @Override
     public double classifyInstance(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-
-        double thisDist;
-
-        if (refreshWeights)
-            initWeights(train.numAttributes() - 1);
-
-        for (int j = 0; j < this.train.numInstances(); j++) {
-            Instance i = train.instance(j);
-            thisDist = distance(instance, i, bsfDistance);
-            if (thisDist < bsfDistance) {
-                bsfDistance = thisDist;
-                classCounts = new int[train.numClasses()];
-                classCounts[(int) i.classValue()]++;
-            } else if (thisDist == bsfDistance) {
-                classCounts[(int) i.classValue()]++;
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        return search((j, cutOffValue) -> distance(query, data, trainData.offset(j), length, cutOffValue));
     }
 
     @Override
     public double classifyWithLowerBound(Instance instance) {
-        double bsfDistance = Double.MAX_VALUE;
-        // for tie splitting
-        int[] classCounts = new int[this.train.numClasses()];
-
-        double thisDist, lbDist;
+        final double[] query = TimeSeriesDataset.toArray(instance);
+        final double[] data = trainData.getData();
+        final int length = trainData.length();
+        final double[][] U = new double[LbWdtw.levels - 1][query.length];
+        final double[][] L = new double[LbWdtw.levels - 1][query.length];
+        final double[] weights = new double[LbWdtw.levels];
 
         if (refreshWeights)
-            initWeights(train.numAttributes() - 1);
-
-        for (int j = 0; j < this.train.numInstances(); j++) {
-            Instance i = train.instance(j);
-            lbDist = LbWdtw.distance(i, weightVector[0], queryMax, queryMin, bsfDistance);
-            if (lbDist < bsfDistance) {
-                thisDist = distance(instance, i, bsfDistance);
-                if (thisDist < bsfDistance) {
-                    bsfDistance = thisDist;
-                    classCounts = new int[train.numClasses()];
-                    classCounts[(int) i.classValue()]++;
-                } else if (thisDist == bsfDistance) {
-                    classCounts[(int) i.classValue()]++;
-                }
-            }
-        }
-
-        double bsfClass = -1;
-        double bsfCount = -1;
-        for (int c = 0; c < classCounts.length; c++) {
-            if (classCounts[c] > bsfCount) {
-                bsfCount = classCounts[c];
-                bsfClass = c;
-            }
-        }
-
-        return bsfClass;
+            initWeights(length);
+        LbWdtw.fillUL(query, 0, query.length, U, L);
+        LbWdtw.fillWeights(weightVector, length, weights);
+        double minWeight = weights[0];
+        for (double weight : weights) minWeight = Math.min(minWeight, weight);
+        final double kimWeight = minWeight;
+
+        return searchWithLowerBound(
+                j -> LbKim.distance(data, trainData.offset(j), query, 0, length, LbKim.Cost.Squared, kimWeight, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY),
+                (j, cutOffValue) -> {
+                    final int offset = trainData.offset(j);
+                    // the bound abandons at its cutoff, so it gets the next value up to keep the ties
+                    final double lbDist = LbWdtw.distance(data, offset, length, U, L, queryMax, queryMin, weights, Math.nextUp(cutOffValue));
+                    if (lbDist > cutOffValue) return Double.POSITIVE_INFINITY;
+                    return distance(query, data, offset, length, cutOffValue);
+                });
     }
 
     @Override
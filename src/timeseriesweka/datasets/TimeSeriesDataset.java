@@ -0,0 +1,93 @@
+/* Copyright (C) 2018 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of FastEE.
+ FastEE is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ LbEnhanced is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
+package timeseriesweka.datasets;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
+ *
+ * @author Chang Wei Tan, Francois Petitjean, Geoff Webb
+ *
+ * Primitive representation of a set of equal length time series.
+ * The values of all the series are stored one after the other in a single array,
+ * series i starting at offset(i), and the class of each series is stored as an int.
+ * It is built once from the Weka Instances so that the distances and lower bounds can run on plain arrays,
+ * the class attribute is expected to be the last attribute.
+ */
+public class TimeSeriesDataset {
+    private final double[] data;        // values of all the series
+    private final int[] labels;         // class of each series
+    private final int size;             // number of series
+    private final int length;           // length of each series
+    private final int numClasses;       // number of classes
+
+    public TimeSeriesDataset(final Instances instances) {
+        this.size = instances.numInstances();
+        this.length = instances.numAttributes() - 1;
+        this.numClasses = instances.numClasses();
+        this.data = new double[size * length];
+        this.labels = new int[size];
+        for (int i = 0; i < size; i++) {
+            final Instance instance = instances.instance(i);
+            final int offset = i * length;
+            for (int j = 0; j < length; j++) {
+                data[offset + j] = instance.value(j);
+            }
+            labels[i] = (int) instance.classValue();
+        }
+    }
+
+    /**
+     * Values of an instance, without its class
+     *
+     * @param instance instance to convert
+     * @return series of the instance
+     */
+    public static double[] toArray(final Instance instance) {
+        final int length = instance.numAttributes() - 1;
+        final double[] series = new double[length];
+        for (int j = 0; j < length; j++) {
+            series[j] = instance.value(j);
+        }
+        return series;
+    }
+
+    public final double[] getData() {
+        return data;
+    }
+
+    public final int offset(final int i) {
+        return i * length;
+    }
+
+    public final double value(final int i, final int j) {
+        return data[i * length + j];
+    }
+
+    public final int getLabel(final int i) {
+        return labels[i];
+    }
+
+    public final int size() {
+        return size;
+    }
+
+    public final int length() {
+        return length;
+    }
+
+    public final int numClasses() {
+        return numClasses;
+    }
+}
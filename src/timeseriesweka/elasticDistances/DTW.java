@@ -26,8 +26,6 @@ import weka.core.Instances;
  * DTW distance
  */
 public class DTW extends ElasticDistances {
-    private final static double[][] matrixD = new double[MAX_SEQ_LENGTH][MAX_SEQ_LENGTH];
-    private final static int[][] minWarpingWindow = new int[MAX_SEQ_LENGTH][MAX_SEQ_LENGTH];
     private int w;       // warping window in terms of sequence length
     private double r;    // warping window in terms of percentage
 
@@ -61,221 +59,275 @@ public class DTW extends ElasticDistances {
     }
 
     public static double distance(final Instance first, final Instance second, final int windowSize) {
-        final int n = first.numAttributes() - 1;
-        final int m = second.numAttributes() - 1;
+        return distance(first, second, windowSize, DistanceWorkspace.local());
+    }
+
+    public static double distance(final Instance first, final Instance second, final int windowSize, final DistanceWorkspace workspace) {
+        return distance(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, windowSize, workspace);
+    }
+
+    public static double distance(final double[] first, final int firstOffset, final int n,
+                                  final double[] second, final int secondOffset, final int m,
+                                  final int windowSize, final DistanceWorkspace workspace) {
+        double[] prev = workspace.getRowA(m);
+        double[] curr = workspace.getRowB(m);
+        double[] tmp;
 
         final int winPlus1 = windowSize + 1;
         double diff;
         int i, j, jStart, jEnd, indexInfyLeft;
 
-        diff = first.value(0) - second.value(0);
-        matrixD[0][0] = diff * diff;
-        for (i = 1; i < Math.min(n, winPlus1); i++) {
-            diff = first.value(i) - second.value(0);
-            matrixD[i][0] = matrixD[i - 1][0] + diff * diff;
-        }
-
+        diff = first[firstOffset] - second[secondOffset];
+        curr[0] = diff * diff;
         for (j = 1; j < Math.min(m, winPlus1); j++) {
-            diff = first.value(0) - second.value(j);
-            matrixD[0][j] = matrixD[0][j - 1] + diff * diff;
+            diff = first[firstOffset] - second[secondOffset + j];
+            curr[j] = curr[j - 1] + diff * diff;
         }
         if (j < m)
-            matrixD[0][j] = Double.POSITIVE_INFINITY;
+            curr[j] = Double.POSITIVE_INFINITY;
 
         for (i = 1; i < n; i++) {
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
+
             jStart = Math.max(1, i - windowSize);
             jEnd = Math.min(m, i + winPlus1);
             indexInfyLeft = i - windowSize - 1;
             if (indexInfyLeft >= 0)
-                matrixD[i][indexInfyLeft] = Double.POSITIVE_INFINITY;
+                curr[indexInfyLeft] = Double.POSITIVE_INFINITY;
+            if (i < winPlus1) {
+                diff = first[firstOffset + i] - second[secondOffset];
+                curr[0] = prev[0] + diff * diff;
+            }
 
             for (j = jStart; j < jEnd; j++) {
-                diff = first.value(i) - second.value(j);
-                matrixD[i][j] = Tools.min3(matrixD[i - 1][j - 1], matrixD[i][j - 1], matrixD[i - 1][j]) + diff * diff;
+                diff = first[firstOffset + i] - second[secondOffset + j];
+                curr[j] = Tools.min3(prev[j - 1], curr[j - 1], prev[j]) + diff * diff;
             }
             if (j < m)
-                matrixD[i][j] = Double.POSITIVE_INFINITY;
+                curr[j] = Double.POSITIVE_INFINITY;
         }
 
-        return matrixD[n - 1][m - 1];
+        return curr[m - 1];
     }
 
     public static double distance(final Instance first, final Instance second, final int windowSize, final double cutOffValue) {
-        boolean tooBig;
-        final int n = first.numAttributes() - 1;
-        final int m = second.numAttributes() - 1;
-
-        double diff;
-        int i, j, jStart, jEnd, indexInfyLeft;
+        return distance(first, second, windowSize, cutOffValue, DistanceWorkspace.local());
+    }
 
-        diff = first.value(0) - second.value(0);
-        matrixD[0][0] = diff * diff;
-        for (i = 1; i < Math.min(n, 1 + windowSize); i++) {
-            diff = first.value(i) - second.value(0);
-            matrixD[i][0] = matrixD[i - 1][0] + diff * diff;
-        }
+    public static double distance(final Instance first, final Instance second, final int windowSize, final double cutOffValue, final DistanceWorkspace workspace) {
+        return distance(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, windowSize, cutOffValue, workspace);
+    }
 
-        for (j = 1; j < Math.min(m, 1 + windowSize); j++) {
-            diff = first.value(0) - second.value(j);
-            matrixD[0][j] = matrixD[0][j - 1] + diff * diff;
+    /**
+     * DTW distance pruned against the cutoff, as in EAPrunedDTW.
+     * A cell above the cutoff cannot be on a path of cost below the cutoff, so each row only computes
+     * the cells of the window from the first one of the previous row under the cutoff, and stops once it
+     * is past the last one of the previous row under the cutoff and its own value is above the cutoff.
+     * The distance is abandoned when a whole row is above the cutoff.
+     * Cells equal to the cutoff are kept so that a distance equal to the cutoff is still returned.
+     *
+     * @return DTW distance, or POSITIVE_INFINITY if it is greater than cutOffValue
+     */
+    public static double distance(final double[] first, final int firstOffset, final int n,
+                                  final double[] second, final int secondOffset, final int m,
+                                  final int windowSize, final double cutOffValue, final DistanceWorkspace workspace) {
+        double[] prev = workspace.getRowA(m);
+        double[] curr = workspace.getRowB(m);
+        double[] tmp;
+
+        double diff, minDist, value;
+        // cells of the previous row under the cutoff are in [start, end)
+        int i, j, jStart, jEnd, start, end, nextStart, nextEnd;
+
+        diff = first[firstOffset] - second[secondOffset];
+        curr[0] = diff * diff;
+        if (curr[0] > cutOffValue)
+            return Double.POSITIVE_INFINITY;
+        jEnd = Math.min(m, 1 + windowSize);
+        for (j = 1; j < jEnd; j++) {
+            diff = first[firstOffset] - second[secondOffset + j];
+            curr[j] = curr[j - 1] + diff * diff;
+            if (curr[j] > cutOffValue)
+                break;
         }
-        if (j < m)
-            matrixD[0][j] = Double.POSITIVE_INFINITY;
+        start = 0;
+        end = j;
 
         for (i = 1; i < n; i++) {
-            tooBig = true;
-            jStart = Math.max(1, i - windowSize);
-            jEnd = Math.min(m, i + windowSize + 1);
-            indexInfyLeft = i - windowSize - 1;
-            if (indexInfyLeft >= 0)
-                matrixD[i][indexInfyLeft] = Double.POSITIVE_INFINITY;
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
 
+            jStart = Math.max(start, i - windowSize);
+            jEnd = Math.min(m, i + windowSize + 1);
+            nextStart = -1;
+            nextEnd = jStart;
             for (j = jStart; j < jEnd; j++) {
-                diff = first.value(i) - second.value(j);
-                matrixD[i][j] = Tools.min3(matrixD[i - 1][j - 1], matrixD[i][j - 1], matrixD[i - 1][j]) + diff * diff;
-                if (tooBig && matrixD[i][j] < cutOffValue)
-                    tooBig = false;
+                minDist = (j < end) ? prev[j] : Double.POSITIVE_INFINITY;
+                if (j > start && j - 1 < end && prev[j - 1] < minDist)
+                    minDist = prev[j - 1];
+                if (j > jStart && curr[j - 1] < minDist)
+                    minDist = curr[j - 1];
+                diff = first[firstOffset + i] - second[secondOffset + j];
+                value = minDist + diff * diff;
+                curr[j] = value;
+                if (value <= cutOffValue) {
+                    if (nextStart < 0)
+                        nextStart = j;
+                    nextEnd = j + 1;
+                } else if (j >= end) {
+                    // nothing under the cutoff above or on the left anymore
+                    break;
+                }
             }
             //Early abandon
-            if (tooBig)
+            if (nextStart < 0)
                 return Double.POSITIVE_INFINITY;
-
-            if (j < m)
-                matrixD[i][j] = Double.POSITIVE_INFINITY;
+            start = nextStart;
+            end = nextEnd;
         }
 
-        return matrixD[n - 1][m - 1];
+        if (end < m)
+            return Double.POSITIVE_INFINITY;
+        return curr[m - 1];
     }
 
     public static DistanceResults distanceExt(final Instance first, final Instance second, final int windowSize) {
-        double minDist = 0.0;
-        int n = first.numAttributes() - 1;
-        int m = second.numAttributes() - 1;
-
-        double diff;
-        int i, j, indiceRes, absIJ;
-        int jStart, jEnd, indexInfyLeft;
-
-        diff = first.value(0) - second.value(0);
-        matrixD[0][0] = diff * diff;
-        minWarpingWindow[0][0] = 0;
-        for (i = 1; i < Math.min(n, 1 + windowSize); i++) {
-            diff = first.value(i) - second.value(0);
-            matrixD[i][0] = matrixD[i - 1][0] + diff * diff;
-            minWarpingWindow[i][0] = i;
-        }
+        return distanceExt(first, second, windowSize, DistanceWorkspace.local());
+    }
 
-        for (j = 1; j < Math.min(m, 1 + windowSize); j++) {
-            diff = first.value(0) - second.value(j);
-            matrixD[0][j] = matrixD[0][j - 1] + diff * diff;
-            minWarpingWindow[0][j] = j;
-        }
-        if (j < m)
-            matrixD[0][j] = Double.POSITIVE_INFINITY;
+    public static DistanceResults distanceExt(final Instance first, final Instance second, final int windowSize, final DistanceWorkspace workspace) {
+        return distanceExt(first, second, windowSize, Double.POSITIVE_INFINITY, workspace);
+    }
 
-        for (i = 1; i < n; i++) {
-            jStart = Math.max(1, i - windowSize);
-            jEnd = Math.min(m, i + windowSize + 1);
-            indexInfyLeft = i - windowSize - 1;
-            if (indexInfyLeft >= 0)
-                matrixD[i][indexInfyLeft] = Double.POSITIVE_INFINITY;
+    public static DistanceResults distanceExt(final double[] first, final int firstOffset, final int n,
+                                              final double[] second, final int secondOffset, final int m,
+                                              final int windowSize, final DistanceWorkspace workspace) {
+        return distanceExt(first, firstOffset, n, second, secondOffset, m, windowSize, Double.POSITIVE_INFINITY, workspace);
+    }
 
-            for (j = jStart; j < jEnd; j++) {
-                absIJ = Math.abs(i - j);
-                indiceRes = Tools.argMin3(matrixD[i - 1][j - 1], matrixD[i][j - 1], matrixD[i - 1][j]);
-                switch (indiceRes) {
-                    case DIAGONAL:
-                        minDist = matrixD[i - 1][j - 1];
-                        minWarpingWindow[i][j] = Math.max(absIJ, minWarpingWindow[i - 1][j - 1]);
-                        break;
-                    case LEFT:
-                        minDist = matrixD[i][j - 1];
-                        minWarpingWindow[i][j] = Math.max(absIJ, minWarpingWindow[i][j - 1]);
-                        break;
-                    case UP:
-                        minDist = matrixD[i - 1][j];
-                        minWarpingWindow[i][j] = Math.max(absIJ, minWarpingWindow[i - 1][j]);
-                        break;
-                }
-                diff = first.value(i) - second.value(j);
-                matrixD[i][j] = minDist + diff * diff;
-            }
-            if (j < m)
-                matrixD[i][j] = Double.POSITIVE_INFINITY;
-        }
+    public static DistanceResults distanceExt(final Instance first, final Instance second, final int windowSize, final double cutOffValue) {
+        return distanceExt(first, second, windowSize, cutOffValue, DistanceWorkspace.local());
+    }
 
-        DistanceResults resExt = new DistanceResults();
-        resExt.distance = matrixD[n - 1][m - 1];
-        resExt.r = minWarpingWindow[n - 1][m - 1];
-        return resExt;
+    public static DistanceResults distanceExt(final Instance first, final Instance second, final int windowSize, final double cutOffValue, final DistanceWorkspace workspace) {
+        return distanceExt(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, windowSize, cutOffValue, workspace);
     }
 
-    public static DistanceResults distanceExt(final Instance first, final Instance second, final int windowSize, final double cutOffValue) {
-        boolean tooBig;
+    /**
+     * DTW distance and the smallest window giving the same distance, pruned against the cutoff as in distance.
+     * The cells on the optimal path are below the cutoff, so their window validity is not changed by the pruning.
+     *
+     * @return DTW distance and window validity, or POSITIVE_INFINITY if the distance is greater than cutOffValue
+     */
+    public static DistanceResults distanceExt(final double[] first, final int firstOffset, final int n,
+                                              final double[] second, final int secondOffset, final int m,
+                                              final int windowSize, final double cutOffValue, final DistanceWorkspace workspace) {
+        double[] prev = workspace.getRowA(m);
+        double[] curr = workspace.getRowB(m);
+        double[] tmp;
+        int[] prevWindow = workspace.getWindowRowA(m);
+        int[] currWindow = workspace.getWindowRowB(m);
+        int[] tmpWindow;
+
+        double diff, diag, left, up, value;
         double minDist = 0.0;
-        int n = first.numAttributes() - 1;
-        int m = second.numAttributes() - 1;
-
-        double diff;
+        // cells of the previous row under the cutoff are in [start, end)
         int i, j, indiceRes, absIJ;
-        int jStart, jEnd, indexInfyLeft;
-
-        diff = first.value(0) - second.value(0);
-        matrixD[0][0] = diff * diff;
-        minWarpingWindow[0][0] = 0;
-        for (i = 1; i < Math.min(n, 1 + windowSize); i++) {
-            diff = first.value(i) - second.value(0);
-            matrixD[i][0] = matrixD[i - 1][0] + diff * diff;
-            minWarpingWindow[i][0] = i;
+        int jStart, jEnd, start, end, nextStart, nextEnd;
+
+        diff = first[firstOffset] - second[secondOffset];
+        curr[0] = diff * diff;
+        currWindow[0] = 0;
+        if (curr[0] > cutOffValue) return new DistanceResults(Double.POSITIVE_INFINITY, windowSize);
+        jEnd = Math.min(m, 1 + windowSize);
+        for (j = 1; j < jEnd; j++) {
+            diff = first[firstOffset] - second[secondOffset + j];
+            curr[j] = curr[j - 1] + diff * diff;
+            currWindow[j] = j;
+            if (curr[j] > cutOffValue) break;
         }
-
-        for (j = 1; j < Math.min(m, 1 + windowSize); j++) {
-            diff = first.value(0) - second.value(j);
-            matrixD[0][j] = matrixD[0][j - 1] + diff * diff;
-            minWarpingWindow[0][j] = j;
-        }
-        if (j < m) matrixD[0][j] = Double.POSITIVE_INFINITY;
+        start = 0;
+        end = j;
 
         for (i = 1; i < n; i++) {
-            tooBig = true;
-            jStart = Math.max(1, i - windowSize);
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
+            tmpWindow = prevWindow;
+            prevWindow = currWindow;
+            currWindow = tmpWindow;
+
+            jStart = Math.max(start, i - windowSize);
             jEnd = Math.min(m, i + windowSize + 1);
-            indexInfyLeft = i - windowSize - 1;
-            if (indexInfyLeft >= 0) matrixD[i][indexInfyLeft] = Double.POSITIVE_INFINITY;
-
+            nextStart = -1;
+            nextEnd = jStart;
             for (j = jStart; j < jEnd; j++) {
+                up = (j < end) ? prev[j] : Double.POSITIVE_INFINITY;
+                diag = (j > start && j - 1 < end) ? prev[j - 1] : Double.POSITIVE_INFINITY;
+                left = (j > jStart) ? curr[j - 1] : Double.POSITIVE_INFINITY;
                 absIJ = Math.abs(i - j);
-                indiceRes = Tools.argMin3(matrixD[i - 1][j - 1], matrixD[i][j - 1], matrixD[i - 1][j]);
+                indiceRes = Tools.argMin3(diag, left, up);
                 switch (indiceRes) {
                     case DIAGONAL:
-                        minDist = matrixD[i - 1][j - 1];
-                        minWarpingWindow[i][j] = Math.max(absIJ, minWarpingWindow[i - 1][j - 1]);
+                        minDist = diag;
+                        currWindow[j] = Math.max(absIJ, prevWindow[j - 1]);
                         break;
                     case LEFT:
-                        minDist = matrixD[i][j - 1];
-                        minWarpingWindow[i][j] = Math.max(absIJ, minWarpingWindow[i][j - 1]);
+                        minDist = left;
+                        currWindow[j] = Math.max(absIJ, currWindow[j - 1]);
                         break;
                     case UP:
-                        minDist = matrixD[i - 1][j];
-                        minWarpingWindow[i][j] = Math.max(absIJ, minWarpingWindow[i - 1][j]);
+                        minDist = up;
+                        currWindow[j] = Math.max(absIJ, prevWindow[j]);
                         break;
                 }
-                diff = first.value(i) - second.value(j);
-                matrixD[i][j] = minDist + diff * diff;
-                if (tooBig && matrixD[i][j] < cutOffValue) tooBig = false;
+                diff = first[firstOffset + i] - second[secondOffset + j];
+                value = minDist + diff * diff;
+                curr[j] = value;
+                if (value <= cutOffValue) {
+                    if (nextStart < 0) nextStart = j;
+                    nextEnd = j + 1;
+                } else if (j >= end) {
+                    // nothing under the cutoff above or on the left anymore
+                    break;
+                }
             }
             //Early abandon
-            if (tooBig) return new DistanceResults(Double.POSITIVE_INFINITY, windowSize);
-
-            if (j < m) matrixD[i][j] = Double.POSITIVE_INFINITY;
+            if (nextStart < 0) return new DistanceResults(Double.POSITIVE_INFINITY, windowSize);
+            start = nextStart;
+            end = nextEnd;
         }
 
+        if (end < m) return new DistanceResults(Double.POSITIVE_INFINITY, windowSize);
         DistanceResults resExt = new DistanceResults();
-        resExt.distance = matrixD[n - 1][m - 1];
-        resExt.r = minWarpingWindow[n - 1][m - 1];
+        resExt.distance = curr[m - 1];
+        resExt.r = currWindow[m - 1];
         return resExt;
     }
 
+    /**
+     * Working memory needed by the DTW distance, with or without the window validity,
+     * including the copies of the series made by the overloads taking Instances.
+     * It is linear in the length and does not depend on the window
+     *
+     * @param length length of the series
+     * @return size of the workspace buffers in bytes
+     */
+    public static long memoryRequired(final int length) {
+        return 2L * (Double.BYTES + Integer.BYTES) * length + DistanceWorkspace.seriesMemory(length);
+    }
+
+    @Override
+    public final long getMemoryRequired(final int length) {
+        return memoryRequired(length);
+    }
+
     @Override
     public String toString() {
         return "DTW";
@@ -0,0 +1,152 @@
+/* Copyright (C) 2018 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of FastEE.
+ FastEE is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ LbEnhanced is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
+package timeseriesweka.elasticDistances;
+
+import weka.core.Instance;
+
+/**
+ * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
+ *
+ * @author Chang Wei Tan, Francois Petitjean, Geoff Webb
+ *
+ * Working memory for the dynamic programming of the elastic distances.
+ * The distances only keep two rows of their cost matrix, restricted to the band around the diagonal for LCSS,
+ * so the buffers never grow quadratically with the series length.
+ * They are sized lazily to the largest pair of series seen so far and are reused between calls.
+ * A workspace is not thread safe: use one workspace per thread or per call site.
+ * The static distance methods that do not take a workspace use the one returned by {@link #local()}.
+ * The distances taking Instances copy their values into the series buffers before running on the arrays.
+ */
+public class DistanceWorkspace {
+    private static final ThreadLocal<DistanceWorkspace> LOCAL = ThreadLocal.withInitial(DistanceWorkspace::new);
+
+    private int[] lcssBand = new int[0];                // two rows of the band of the lcss matrix
+    private int[] deltaBand = new int[0];               // two rows of the band of the minimum delta matrix
+    private double[] rowA = new double[0];              // previous row of the cost matrix
+    private double[] rowB = new double[0];              // current row of the cost matrix
+    private double[] rowC = new double[0];              // local costs along the first series
+    private double[] rowD = new double[0];              // local costs along the second series
+    private int[] windowRowA = new int[0];              // previous row of the minimum warping window
+    private int[] windowRowB = new int[0];              // current row of the minimum warping window
+    private double[] seriesA = new double[0];           // values of the first series
+    private double[] seriesB = new double[0];           // values of the second series
+
+    public DistanceWorkspace() {
+    }
+
+    /**
+     * Workspace of the current thread
+     *
+     * @return workspace owned by the calling thread
+     */
+    public static DistanceWorkspace local() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Memory currently held by the workspace
+     *
+     * @return size of the buffers in bytes
+     */
+    public long size() {
+        return (long) Double.BYTES * (rowA.length + rowB.length + rowC.length + rowD.length + seriesA.length + seriesB.length) +
+                (long) Integer.BYTES * (windowRowA.length + windowRowB.length + lcssBand.length + deltaBand.length);
+    }
+
+    /**
+     * Memory of the series buffers filled by the distances taking Instances
+     *
+     * @param length length of the series
+     * @return size of the two series buffers in bytes
+     */
+    static long seriesMemory(final int length) {
+        return 2L * Double.BYTES * length;
+    }
+
+    int[] getLcssBand(final int size) {
+        if (lcssBand.length < size) {
+            lcssBand = new int[size];
+        }
+        return lcssBand;
+    }
+
+    int[] getDeltaBand(final int size) {
+        if (deltaBand.length < size) {
+            deltaBand = new int[size];
+        }
+        return deltaBand;
+    }
+
+    double[] getRowA(final int n) {
+        if (rowA.length < n) {
+            rowA = new double[n];
+        }
+        return rowA;
+    }
+
+    double[] getRowB(final int n) {
+        if (rowB.length < n) {
+            rowB = new double[n];
+        }
+        return rowB;
+    }
+
+    double[] getRowC(final int n) {
+        if (rowC.length < n) {
+            rowC = new double[n];
+        }
+        return rowC;
+    }
+
+    double[] getRowD(final int n) {
+        if (rowD.length < n) {
+            rowD = new double[n];
+        }
+        return rowD;
+    }
+
+    int[] getWindowRowA(final int n) {
+        if (windowRowA.length < n) {
+            windowRowA = new int[n];
+        }
+        return windowRowA;
+    }
+
+    int[] getWindowRowB(final int n) {
+        if (windowRowB.length < n) {
+            windowRowB = new int[n];
+        }
+        return windowRowB;
+    }
+
+    double[] copyFirst(final Instance first) {
+        final int n = first.numAttributes() - 1;
+        if (seriesA.length < n) {
+            seriesA = new double[n];
+        }
+        for (int i = 0; i < n; i++) {
+            seriesA[i] = first.value(i);
+        }
+        return seriesA;
+    }
+
+    double[] copySecond(final Instance second) {
+        final int n = second.numAttributes() - 1;
+        if (seriesB.length < n) {
+            seriesB = new double[n];
+        }
+        for (int i = 0; i < n; i++) {
+            seriesB[i] = second.value(i);
+        }
+        return seriesB;
+    }
+}
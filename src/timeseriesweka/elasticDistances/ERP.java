@@ -26,9 +26,6 @@ import weka.core.Instances;
  * ERP distance
  */
 public class ERP extends ElasticDistances {
-    private static double[] prev = new double[MAX_SEQ_LENGTH];
-    private static double[] curr = new double[MAX_SEQ_LENGTH];
-    private final static int[][] minWarpingWindow = new int[MAX_SEQ_LENGTH][MAX_SEQ_LENGTH];
     private double g;
     private double bandSize;
     private double[] windowSizes;
@@ -62,18 +59,33 @@ public class ERP extends ElasticDistances {
         return distanceExt(first, second, g, bandSize);
     }
 
-    public static double distance(Instance first, Instance second, final double g, final double bandSize) {
-        final int m = first.numAttributes() - 1;
-        final int n = second.numAttributes() - 1;
+    public static double distance(final Instance first, final Instance second, final double g, final double bandSize) {
+        return distance(first, second, g, bandSize, DistanceWorkspace.local());
+    }
+
+    public static double distance(final Instance first, final Instance second, final double g, final double bandSize, final DistanceWorkspace workspace) {
+        return distance(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, g, bandSize, workspace);
+    }
+
+    public static double distance(double[] first, int firstOffset, final int m,
+                                  double[] second, int secondOffset, final int n,
+                                  final double g, final double bandSize, final DistanceWorkspace workspace) {
         final int band = getWindowSize(bandSize, m);
+        double[] prev = workspace.getRowA(m);
+        double[] curr = workspace.getRowB(m);
         double diff, d1, d2, d12, cost;
         int i, j, left, right, absIJ;
 
-        Instance tmp;
+        double[] tmp;
+        int tmpOffset;
         if (n < m) {
             tmp = first;
             first = second;
             second = tmp;
+            tmpOffset = firstOffset;
+            firstOffset = secondOffset;
+            secondOffset = tmpOffset;
         }
 
         for (i = 0; i < m; i++) {
@@ -94,13 +106,13 @@ public class ERP extends ElasticDistances {
             for (j = left; j <= right; j++) {
                 absIJ = Math.abs(i - j);
                 if (absIJ <= band) {
-                    diff = first.value(i) - g;
+                    diff = first[firstOffset + i] - g;
                     d1 = (diff * diff);
 
-                    diff = g - second.value(j);
+                    diff = g - second[secondOffset + j];
                     d2 = (diff * diff);
 
-                    diff = first.value(i) - second.value(j);
+                    diff = first[firstOffset + i] - second[secondOffset + j];
                     d12 = (diff * diff);
 
                     if ((i + j) != 0) {
@@ -127,27 +139,46 @@ public class ERP extends ElasticDistances {
         return (curr[m - 1]);
     }
 
-    public static DistanceResults distanceExt(Instance first, Instance second, final double g, final double bandSize) {
-        final int m = first.numAttributes() - 1;
-        final int n = second.numAttributes() - 1;
+    public static DistanceResults distanceExt(final Instance first, final Instance second, final double g, final double bandSize) {
+        return distanceExt(first, second, g, bandSize, DistanceWorkspace.local());
+    }
+
+    public static DistanceResults distanceExt(final Instance first, final Instance second, final double g, final double bandSize, final DistanceWorkspace workspace) {
+        return distanceExt(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, g, bandSize, workspace);
+    }
+
+    public static DistanceResults distanceExt(double[] first, int firstOffset, final int m,
+                                              double[] second, int secondOffset, final int n,
+                                              final double g, final double bandSize, final DistanceWorkspace workspace) {
         final int band = getWindowSize(bandSize, m);
+        double[] prev = workspace.getRowA(m);
+        double[] curr = workspace.getRowB(m);
+        int[] prevWindow = workspace.getWindowRowA(m);
+        int[] currWindow = workspace.getWindowRowB(m);
         double diff, d1, d2, d12, cost;
         int i, j, left, right, absIJ;
 
-        Instance tmp;
+        double[] tmp;
+        int tmpOffset;
         if (n < m) {
             tmp = first;
             first = second;
             second = tmp;
+            tmpOffset = firstOffset;
+            firstOffset = secondOffset;
+            secondOffset = tmpOffset;
         }
 
 
-        minWarpingWindow[0][0] = 0;
         for (i = 0; i < m; i++) {
             // Swap current and prev arrays. We'll just overwrite the new curr.
             double[] temp = prev;
             prev = curr;
             curr = temp;
+            int[] tempWindow = prevWindow;
+            prevWindow = currWindow;
+            currWindow = tempWindow;
 
             left = i - (band + 1);
             if (left < 0) {
@@ -161,13 +192,13 @@ public class ERP extends ElasticDistances {
             for (j = left; j <= right; j++) {
                 absIJ = Math.abs(i - j);
                 if (absIJ <= band) {
-                    diff = first.value(i) - g;
+                    diff = first[firstOffset + i] - g;
                     d1 = (diff * diff);
 
-                    diff = g - second.value(j);
+                    diff = g - second[secondOffset + j];
                     d2 = (diff * diff);
 
-                    diff = first.value(i) - second.value(j);
+                    diff = first[firstOffset + i] - second[secondOffset + j];
                     d12 = (diff * diff);
 
                     if ((i + j) != 0) {
@@ -176,19 +207,19 @@ public class ERP extends ElasticDistances {
                                         ((curr[j - 1] + d2) <= (prev[j] + d1))))) {
                             // del
                             cost = curr[j - 1] + d2;
-                            minWarpingWindow[i][j] = Math.max(absIJ, minWarpingWindow[i][j - 1]);
+                            currWindow[j] = Math.max(absIJ, currWindow[j - 1]);
                         } else if (j == 0 || prev[j - 1] + d12 >= prev[j] + d1 && prev[j] + d1 <= curr[j - 1] + d2) {
                             // ins
                             cost = prev[j] + d1;
-                            minWarpingWindow[i][j] = Math.max(absIJ, minWarpingWindow[i - 1][j]);
+                            currWindow[j] = Math.max(absIJ, prevWindow[j]);
                         } else {
                             // match
                             cost = prev[j - 1] + d12;
-                            minWarpingWindow[i][j] = Math.max(absIJ, minWarpingWindow[i - 1][j - 1]);
+                            currWindow[j] = Math.max(absIJ, prevWindow[j - 1]);
                         }
                     } else {
                         cost = 0;
-                        minWarpingWindow[i][j] = 0;
+                        currWindow[j] = 0;
                     }
 
                     curr[j] = cost;
@@ -201,10 +232,27 @@ public class ERP extends ElasticDistances {
 
         DistanceResults resExt = new DistanceResults();
         resExt.distance = curr[m - 1];
-        resExt.r = minWarpingWindow[n - 1][m - 1];
+        resExt.r = currWindow[m - 1];
         return resExt;
     }
 
+    /**
+     * Working memory needed by the ERP distance, with or without the window validity,
+     * including the copies of the series made by the overloads taking Instances.
+     * It is linear in the length and does not depend on the band
+     *
+     * @param length length of the series
+     * @return size of the workspace buffers in bytes
+     */
+    public static long memoryRequired(final int length) {
+        return 2L * (Double.BYTES + Integer.BYTES) * length + DistanceWorkspace.seriesMemory(length);
+    }
+
+    @Override
+    public final long getMemoryRequired(final int length) {
+        return memoryRequired(length);
+    }
+
     @Override
     public final String toString() {
         return "ERP";
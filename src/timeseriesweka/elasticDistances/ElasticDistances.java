@@ -24,7 +24,6 @@ import java.text.DecimalFormat;
  * Superclass for all the elastic distances used
  */
 public abstract class ElasticDistances extends EuclideanDistance {
-    final static int MAX_SEQ_LENGTH = 4000;         // maximum sequence length possible
     final static int DIAGONAL = 0;                  // value for diagonal
     final static int LEFT = 1;                      // value for left
     final static int UP = 2;                        // value for up
@@ -34,4 +33,13 @@ public abstract class ElasticDistances extends EuclideanDistance {
     protected DecimalFormat df = new DecimalFormat("#0.####");
 
     public abstract void setParamsFromParamID(Instances train, int paramId);
+
+    /**
+     * Working memory needed to compute this distance with its current parameters,
+     * so that the memory of a job can be checked before it starts
+     *
+     * @param length length of the series
+     * @return size of the workspace buffers in bytes
+     */
+    public abstract long getMemoryRequired(int length);
 }
@@ -15,6 +15,8 @@ import utilities.Tools;
 import weka.core.Instance;
 import weka.core.Instances;
 
+import java.util.Arrays;
+
 /**
  * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
  *
@@ -26,8 +28,6 @@ import weka.core.Instances;
  * LCSS distance
  */
 public class LCSS extends ElasticDistances {
-    private static int[][] lcss = new int[MAX_SEQ_LENGTH + 1][MAX_SEQ_LENGTH + 1];
-    private static int[][] minDelta = new int[MAX_SEQ_LENGTH + 1][MAX_SEQ_LENGTH + 1];
     private double epsilon;
     private int delta;
     private double[] epsilons;
@@ -48,7 +48,7 @@ public class LCSS extends ElasticDistances {
 
     @Override
     public final double distance(final Instance first, final Instance second, final double cutOffValue) {
-        return distance(first, second, epsilon, delta);
+        return distance(first, second, epsilon, delta, cutOffValue);
     }
 
     public final DistanceResults distanceExt(final Instance first, final Instance second) {
@@ -60,83 +60,184 @@ public class LCSS extends ElasticDistances {
     }
 
     public static double distance(final Instance first, final Instance second, final double epsilon, final int delta) {
-        final int m = first.numAttributes() - 1;
-        final int n = second.numAttributes() - 1;
-        int i, j;
-        lcss = new int[m + 1][n + 1];
+        return distance(first, second, epsilon, delta, DistanceWorkspace.local());
+    }
+
+    public static double distance(final Instance first, final Instance second, final double epsilon, final int delta, final DistanceWorkspace workspace) {
+        return distance(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, epsilon, delta, workspace);
+    }
+
+    public static double distance(final double[] first, final int firstOffset, final int m,
+                                  final double[] second, final int secondOffset, final int n,
+                                  final double epsilon, final int delta, final DistanceWorkspace workspace) {
+        return distance(first, firstOffset, m, second, secondOffset, n, epsilon, delta, Double.POSITIVE_INFINITY, workspace);
+    }
+
+    public static double distance(final Instance first, final Instance second, final double epsilon, final int delta, final double cutOffValue) {
+        return distance(first, second, epsilon, delta, cutOffValue, DistanceWorkspace.local());
+    }
+
+    public static double distance(final Instance first, final Instance second, final double epsilon, final int delta, final double cutOffValue, final DistanceWorkspace workspace) {
+        return distance(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, epsilon, delta, cutOffValue, workspace);
+    }
+
+    /**
+     * LCSS distance with early abandon.
+     * Each row adds at most one to the lcss, so after row i the distance is at least
+     * 1 - (best lcss of the row + rows left) / m and it is abandoned once this is above the cutoff.
+     * The test is strict so that a distance equal to the cutoff is still returned.
+     *
+     * @return LCSS distance, or POSITIVE_INFINITY if it is greater than cutOffValue
+     */
+    public static double distance(final double[] first, final int firstOffset, final int m,
+                                  final double[] second, final int secondOffset, final int n,
+                                  final double epsilon, final int delta, final double cutOffValue, final DistanceWorkspace workspace) {
+        // only two rows of the band around the diagonal are kept:
+        // cell (i, j) is at j - i + offset in its row and cells outside the band are 0
+        final int offset = Math.min(delta, Math.max(m, n));
+        final int width = 2 * offset + 1;
+        final int[] lcss = workspace.getLcssBand(2 * width);
+        int prev = 0, curr = width, tmp;
+        int i, j, k, cell, up, left, rowMax;
+        Arrays.fill(lcss, curr, curr + width, 0);
 
         for (i = 0; i < m; i++) {
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
+            Arrays.fill(lcss, curr, curr + width, 0);
+
+            rowMax = 0;
             for (j = i - delta; j <= i + delta; j++) {
                 if (j < 0) {
                     j = -1;
                 } else if (j >= n) {
                     j = i + delta;
-                } else if (second.value(j) + epsilon >= first.value(i) &&
-                        second.value(j) - epsilon <= first.value(i)) {
-                    lcss[i + 1][j + 1] = lcss[i][j] + 1;
-                } else if (delta == 0) {
-                    lcss[i + 1][j + 1] = lcss[i][j];
-                } else if (lcss[i][j + 1] > lcss[i + 1][j]) {
-                    lcss[i + 1][j + 1] = lcss[i][j + 1];
                 } else {
-                    lcss[i + 1][j + 1] = lcss[i + 1][j];
+                    k = j - i + offset;
+                    cell = curr + k;
+                    if (second[secondOffset + j] + epsilon >= first[firstOffset + i] &&
+                            second[secondOffset + j] - epsilon <= first[firstOffset + i]) {
+                        lcss[cell] = lcss[prev + k] + 1;
+                    } else if (delta == 0) {
+                        lcss[cell] = lcss[prev + k];
+                    } else {
+                        up = (k + 1 < width) ? lcss[prev + k + 1] : 0;
+                        left = (k > 0) ? lcss[cell - 1] : 0;
+                        lcss[cell] = (up > left) ? up : left;
+                    }
+                    if (lcss[cell] > rowMax)
+                        rowMax = lcss[cell];
                 }
             }
+            //Early abandon
+            if (1.0 - 1.0 * (rowMax + m - i - 1) / m > cutOffValue)
+                return Double.POSITIVE_INFINITY;
         }
 
-        int max = -1;
-        for (i = 1; i < m + 1; i++) {
-            if (lcss[m][i] > max) {
-                max = lcss[m][i];
-            }
-        }
-        return 1.0 - 1.0 * lcss[m][n] / m;
+        k = n - m + offset;
+        final int res = (k >= 0 && k < width) ? lcss[curr + k] : 0;
+        return 1.0 - 1.0 * res / m;
     }
 
     public static DistanceResults distanceExt(final Instance first, final Instance second, final double epsilon, final int delta) {
-        final int m = first.numAttributes() - 1;
-        final int n = second.numAttributes() - 1;
-        int i, j, absIJ;
-        lcss = new int[m + 1][n + 1];
-        minDelta = new int[m + 1][n + 1];
+        return distanceExt(first, second, epsilon, delta, DistanceWorkspace.local());
+    }
+
+    public static DistanceResults distanceExt(final Instance first, final Instance second, final double epsilon, final int delta, final DistanceWorkspace workspace) {
+        return distanceExt(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, epsilon, delta, workspace);
+    }
+
+    public static DistanceResults distanceExt(final double[] first, final int firstOffset, final int m,
+                                              final double[] second, final int secondOffset, final int n,
+                                              final double epsilon, final int delta, final DistanceWorkspace workspace) {
+        // two rows of the band, see distance
+        final int offset = Math.min(delta, Math.max(m, n));
+        final int width = 2 * offset + 1;
+        final int[] lcss = workspace.getLcssBand(2 * width);
+        final int[] minDelta = workspace.getDeltaBand(2 * width);
+        int prev = 0, curr = width, tmp;
+        int i, j, k, cell, up, left, absIJ;
+        Arrays.fill(lcss, curr, curr + width, 0);
+        Arrays.fill(minDelta, curr, curr + width, 0);
 
         for (i = 0; i < m; i++) {
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
+            Arrays.fill(lcss, curr, curr + width, 0);
+            Arrays.fill(minDelta, curr, curr + width, 0);
+
             for (j = i - delta; j <= i + delta; j++) {
                 if (j < 0) {
                     j = -1;
                 } else if (j >= n) {
                     j = i + delta;
-                } else if (second.value(j) + epsilon >= first.value(i) &&
-                        second.value(j) - epsilon <= first.value(i)) {
-                    absIJ = Math.abs(i - j);
-                    lcss[i + 1][j + 1] = lcss[i][j] + 1;
-                    minDelta[i + 1][j + 1] = Math.max(absIJ, minDelta[i][j]);
-                } else if (delta == 0) {
-                    lcss[i + 1][j + 1] = lcss[i][j];
-                    minDelta[i + 1][j + 1] = 0;
-                } else if (lcss[i][j + 1] > lcss[i + 1][j]) {
-                    lcss[i + 1][j + 1] = lcss[i][j + 1];
-                    minDelta[i + 1][j + 1] = minDelta[i][j + 1];
                 } else {
-                    lcss[i + 1][j + 1] = lcss[i + 1][j];
-                    minDelta[i + 1][j + 1] = minDelta[i + 1][j];
+                    k = j - i + offset;
+                    cell = curr + k;
+                    if (second[secondOffset + j] + epsilon >= first[firstOffset + i] &&
+                            second[secondOffset + j] - epsilon <= first[firstOffset + i]) {
+                        absIJ = Math.abs(i - j);
+                        lcss[cell] = lcss[prev + k] + 1;
+                        minDelta[cell] = Math.max(absIJ, minDelta[prev + k]);
+                    } else if (delta == 0) {
+                        lcss[cell] = lcss[prev + k];
+                        minDelta[cell] = 0;
+                    } else {
+                        up = (k + 1 < width) ? lcss[prev + k + 1] : 0;
+                        left = (k > 0) ? lcss[cell - 1] : 0;
+                        if (up > left) {
+                            lcss[cell] = up;
+                            minDelta[cell] = minDelta[prev + k + 1];
+                        } else {
+                            lcss[cell] = left;
+                            minDelta[cell] = (k > 0) ? minDelta[cell - 1] : 0;
+                        }
+                    }
                 }
             }
         }
 
-        int max = -1, maxR = -1;
+        int max = -1, maxR = -1, value, res = 0;
         for (i = 1; i < m + 1; i++) {
-            if (lcss[m][i] > max) {
-                max = lcss[m][i];
-                maxR = minDelta[m][i];
+            k = i - m + offset;
+            value = (k >= 0 && k < width) ? lcss[curr + k] : 0;
+            if (value > max) {
+                max = value;
+                maxR = (k >= 0 && k < width) ? minDelta[curr + k] : 0;
             }
         }
+        k = n - m + offset;
+        if (k >= 0 && k < width) {
+            res = lcss[curr + k];
+        }
         DistanceResults resExt = new DistanceResults();
-        resExt.distance = 1.0 - 1.0 * lcss[m][n] / m;
+        resExt.distance = 1.0 - 1.0 * res / m;
         resExt.r = maxR;
         return resExt;
     }
 
+    /**
+     * Working memory needed by the LCSS distance,
+     * including the copies of the series made by the overloads taking Instances
+     *
+     * @param length length of the series
+     * @param delta  warping window
+     * @return size of the workspace buffers in bytes
+     */
+    public static long memoryRequired(final int length, final int delta) {
+        return 4L * Integer.BYTES * (2L * Math.min(delta, length) + 1) + DistanceWorkspace.seriesMemory(length);
+    }
+
+    @Override
+    public final long getMemoryRequired(final int length) {
+        return memoryRequired(length, delta);
+    }
+
     @Override
     public final String toString() {
         return "LCSS";
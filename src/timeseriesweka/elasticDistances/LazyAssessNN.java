@@ -11,8 +11,13 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.elasticDistances;
 
+import timeseriesweka.datasets.TimeSeriesDataset;
 import timeseriesweka.fastWWS.SequenceStatsCache;
-import weka.core.Instance;
+import timeseriesweka.lowerBounds.LbEnhanced;
+import timeseriesweka.lowerBounds.LbImproved;
+import timeseriesweka.lowerBounds.LbKim;
+import timeseriesweka.lowerBounds.LbTwed;
+import timeseriesweka.lowerBounds.LbWdtw;
 
 /**
  * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
@@ -27,36 +32,32 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
     public int indexQuery;
     public int indexReference;         // Index for query and reference
     private SequenceStatsCache cache;               // Cache to store the information for the sequences
-    private Instance query, reference;              // Query and reference sequences
+    private final TimeSeriesDataset dataset;        // Sequences of the cache
+    private final double[] data;                    // Values of the sequences
+    private final int length;                       // Length of the sequences
+    private int queryOffset, referenceOffset;       // Offsets of the query and reference sequences in data
     private int indexStoppedLB, oldIndexStoppedLB;  // Index where we stop LB
     private int currentW;                           // Current warping window for DTW
     private int minWindowValidityFullDTW;           // Minimum window validity for DTW, ERP, LCSS
     private int nOperationsLBKim;                   // Number of operations for LB Kim
     private double minDist;                         // distance
     private double bestMinDist;                     // best so far distance
-    private double EuclideanDist;                   // euclidean distance
+    private double EuclideanDist;                   // euclidean distance, -1 until computed
     private LBStatus status;                        // Status of Lower Bound
     private double[] currentWeightVector;           // weight vector for WDTW
+    private final double[] wdtwWeights = new double[LbWdtw.levels];     // weight floor of each level for WDTW
+    private final double[][] wdtwUE = new double[LbWdtw.levels - 1][];  // envelopes of each level for WDTW
+    private final double[][] wdtwLE = new double[LbWdtw.levels - 1][];
     private double currentC;                        // parameter for MSM
     private double currentG, currentBandSize;       // parameters for ERP
     private double currentNu, currentLambda;        // parameters for TWED
     private double currentEpsilon;                  // parameter for LCSS
     private int currentDelta;                       // parameter for LCSS
 
-    public LazyAssessNN(Instance query, int index, Instance reference, int indexReference, SequenceStatsCache cache) {
-        if (index < indexReference) {
-            this.query = query;
-            this.indexQuery = index;
-            this.reference = reference;
-            this.indexReference = indexReference;
-        } else {
-            this.query = reference;
-            this.indexQuery = indexReference;
-            this.reference = query;
-            this.indexReference = index;
-        }
+    public LazyAssessNN(int index, int indexReference, SequenceStatsCache cache) {
+        this(cache);
+        setIndices(index, indexReference);
         this.minDist = 0.0;
-        this.cache = cache;
         tryLBKim();
         this.bestMinDist = minDist;
         this.status = LBStatus.LB_Kim;
@@ -64,100 +65,82 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
 
     public LazyAssessNN(SequenceStatsCache cache) {
         this.cache = cache;
+        this.dataset = cache.getDataset();
+        this.data = dataset.getData();
+        this.length = dataset.length();
+    }
+
+    private void setIndices(int index, int indexReference) {
+        if (index < indexReference) {
+            setIndicesAsItIs(index, indexReference);
+        } else {
+            setIndicesAsItIs(indexReference, index);
+        }
     }
 
-    public void set(Instance query, int index, Instance reference, int indexReference) {
+    private void setIndicesAsItIs(int index, int indexReference) {
+        this.indexQuery = index;
+        this.queryOffset = dataset.offset(index);
+        this.indexReference = indexReference;
+        this.referenceOffset = dataset.offset(indexReference);
+        this.EuclideanDist = -1;
+    }
+
+    public void set(int index, int indexReference) {
         // --- OTHER RESET
         indexStoppedLB = oldIndexStoppedLB = 0;
         currentW = 0;
         minWindowValidityFullDTW = 0;
         nOperationsLBKim = 0;
         // --- From constructor
-        if (index < indexReference) {
-            this.query = query;
-            this.indexQuery = index;
-            this.reference = reference;
-            this.indexReference = indexReference;
-        } else {
-            this.query = reference;
-            this.indexQuery = indexReference;
-            this.reference = query;
-            this.indexReference = index;
-        }
+        setIndices(index, indexReference);
         this.minDist = 0.0;
         tryLBKim();
         this.bestMinDist = minDist;
         this.status = LBStatus.LB_Kim;
     }
 
-    public void setAsItIs(Instance query, int index, Instance reference, int indexReference) {
+    public void setAsItIs(int index, int indexReference) {
         // --- OTHER RESET
         indexStoppedLB = oldIndexStoppedLB = 0;
         currentW = 0;
         minWindowValidityFullDTW = 0;
         nOperationsLBKim = 0;
-        this.query = query;
-        this.indexQuery = index;
-        this.reference = reference;
-        this.indexReference = indexReference;
+        setIndicesAsItIs(index, indexReference);
         this.minDist = 0.0;
         tryLBKim();
         this.bestMinDist = minDist;
         this.status = LBStatus.LB_Kim;
     }
 
-    public void setWoutKimAsItIs(Instance query, int index, Instance reference, int indexReference) {
+    public void setWoutKimAsItIs(int index, int indexReference) {
         // --- OTHER RESET
         indexStoppedLB = oldIndexStoppedLB = 0;
         // --- From constructor
-        this.query = query;
-        this.indexQuery = index;
-        this.reference = reference;
-        this.indexReference = indexReference;
+        setIndicesAsItIs(index, indexReference);
         this.minDist = 0.0;
         this.bestMinDist = minDist;
         this.status = LBStatus.None;
     }
 
-    public void setWoutKim(Instance query, int index, Instance reference, int indexReference) {
+    public void setWoutKim(int index, int indexReference) {
         // --- OTHER RESET
         indexStoppedLB = oldIndexStoppedLB = 0;
         // --- From constructor
-        if (index < indexReference) {
-            this.query = query;
-            this.indexQuery = index;
-            this.reference = reference;
-            this.indexReference = indexReference;
-        } else {
-            this.query = reference;
-            this.indexQuery = indexReference;
-            this.reference = query;
-            this.indexReference = index;
-        }
+        setIndices(index, indexReference);
         this.minDist = 0.0;
         this.bestMinDist = minDist;
         this.status = LBStatus.None;
     }
 
-    public void setForTWED(Instance query, int index, Instance reference, int indexReference) {
+    public void setForTWED(int index, int indexReference) {
         // --- OTHER RESET
         indexStoppedLB = oldIndexStoppedLB = 0;
         // --- From constructor
-        if (index < indexReference) {
-            this.query = query;
-            this.indexQuery = index;
-            this.reference = reference;
-            this.indexReference = indexReference;
-        } else {
-            this.query = reference;
-            this.indexQuery = indexReference;
-            this.reference = query;
-            this.indexReference = index;
-        }
+        setIndices(index, indexReference);
         this.minDist = 0.0;
         this.bestMinDist = minDist;
         this.status = LBStatus.None;
-        this.cache.initLbDistances();
     }
 
     public void setBestMinDist(double bestMinDist) {
@@ -185,12 +168,15 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
     }
 
     private void setCurrentWeightVector(final double[] weightVector) {
-        this.currentWeightVector = weightVector;
-        if (status == LBStatus.Full_WDTW) {
-            this.status = LBStatus.Previous_WDTW;
-        } else {
-            this.status = LBStatus.Previous_LB_WDTW;
-            this.oldIndexStoppedLB = indexStoppedLB;
+        if (this.currentWeightVector != weightVector) {
+            this.currentWeightVector = weightVector;
+            LbWdtw.fillWeights(weightVector, length, wdtwWeights);
+            if (status == LBStatus.Full_WDTW) {
+                this.status = LBStatus.Previous_WDTW;
+            } else {
+                this.status = LBStatus.Previous_LB_WDTW;
+                this.oldIndexStoppedLB = indexStoppedLB;
+            }
         }
     }
 
@@ -279,24 +265,36 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
             return RefineReturnType.Pruned_with_Dist;
         }
         EuclideanDist = 0;
-        for (int i = query.numAttributes() - 2; i >= 0; i--) {
-            final double dist = query.value(i) - reference.value(i);
+        for (int i = length - 1; i >= 0; i--) {
+            final double dist = data[queryOffset + i] - data[referenceOffset + i];
             EuclideanDist += dist * dist;
         }
         return RefineReturnType.New_best;
     }
 
+    private double getEuclideanUpperBound() {
+        if (EuclideanDist < 0) {
+            // summed in the same order as the DTW so that the diagonal path gives exactly this value
+            EuclideanDist = 0;
+            for (int i = 0; i < length; i++) {
+                final double dist = data[queryOffset + i] - data[referenceOffset + i];
+                EuclideanDist += dist * dist;
+            }
+        }
+        return EuclideanDist;
+    }
+
+    // hierarchical LB_Kim, see LbKim
     private void tryLBKim() {
-        double diffFirsts = query.value(0) - reference.value(0);
-        double diffLasts = query.value(query.numAttributes() - 2) - reference.value(reference.numAttributes() - 2);
-        minDist = diffFirsts * diffFirsts + diffLasts * diffLasts;
-        nOperationsLBKim = 2;
-        if (!cache.isMinFirst(indexQuery) && !cache.isMinFirst(indexReference) && !cache.isMinLast(indexQuery) && !cache.isMinLast(indexReference)) {
+        minDist = LbKim.distance(data, queryOffset, data, referenceOffset, length,
+                LbKim.Cost.Squared, 1, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        nOperationsLBKim = 2 * LbKim.nLevels(length);
+        if (LbKim.isInner(cache.getIMin(indexQuery), length) && LbKim.isInner(cache.getIMin(indexReference), length)) {
             final double diffMin = cache.getMin(indexQuery) - cache.getMin(indexReference);
             minDist += diffMin * diffMin;
             nOperationsLBKim++;
         }
-        if (!cache.isMaxFirst(indexQuery) && !cache.isMaxFirst(indexReference) && !cache.isMaxLast(indexQuery) && !cache.isMaxLast(indexReference)) {
+        if (LbKim.isInner(cache.getIMax(indexQuery), length) && LbKim.isInner(cache.getIMax(indexReference), length)) {
             final double diffMax = cache.getMax(indexQuery) - cache.getMax(indexReference);
             minDist += diffMax * diffMax;
             nOperationsLBKim++;
@@ -309,12 +307,11 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
         Lower bounds for DTW
      -----------------------------------------------------------------------------------------------------------------*/
     private void tryContinueLBKeoghQR(final double scoreToBeat) {
-        final int length = query.numAttributes() - 1;
         final double[] LEQ = cache.getDTWLE(indexQuery, currentW);
         final double[] UEQ = cache.getDTWUE(indexQuery, currentW);
         while (indexStoppedLB < length && minDist <= scoreToBeat) {
             final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
-            final double c = reference.value(index);
+            final double c = data[referenceOffset + index];
             if (c < LEQ[index]) {
                 final double diff = LEQ[index] - c;
                 minDist += diff * diff;
@@ -327,12 +324,11 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
     }
 
     private void tryContinueLBKeoghRQ(final double scoreToBeat) {
-        final int length = reference.numAttributes() - 1;
         final double[] LER = cache.getDTWLE(indexReference, currentW);
         final double[] UER = cache.getDTWUE(indexReference, currentW);
         while (indexStoppedLB < length && minDist <= scoreToBeat) {
             final int index = cache.getIndexNthHighestVal(indexQuery, indexStoppedLB);
-            final double c = query.value(index);
+            final double c = data[queryOffset + index];
             if (c < LER[index]) {
                 final double diff = LER[index] - c;
                 minDist += diff * diff;
@@ -345,14 +341,13 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
     }
 
     private void tryFullLBKeoghQR() {
-        final int length = query.numAttributes() - 1;
         final double[] LEQ = cache.getDTWLE(indexQuery, currentW);
         final double[] UEQ = cache.getDTWUE(indexQuery, currentW);
         this.minDist = 0.0;
         this.indexStoppedLB = 0;
         while (indexStoppedLB < length) {
             final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
-            final double c = reference.value(index);
+            final double c = data[referenceOffset + index];
             if (c < LEQ[index]) {
                 final double diff = LEQ[index] - c;
                 minDist += diff * diff;
@@ -365,14 +360,13 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
     }
 
     private void tryFullLBKeoghRQ() {
-        final int length = reference.numAttributes() - 1;
         final double[] LER = cache.getDTWLE(indexReference, currentW);
         final double[] UER = cache.getDTWUE(indexReference, currentW);
         this.minDist = 0.0;
         this.indexStoppedLB = 0;
         while (indexStoppedLB < length) {
             final int index = cache.getIndexNthHighestVal(indexQuery, indexStoppedLB);
-            final double c = query.value(index);
+            final double c = data[queryOffset + index];
             if (c < LER[index]) {
                 final double diff = LER[index] - c;
                 minDist += diff * diff;
@@ -384,149 +378,189 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
         }
     }
 
+    private void tryContinueLBEnhanced(final double scoreToBeat) {
+        final double[] LEQ = cache.getDTWLE(indexQuery, currentW);
+        final double[] UEQ = cache.getDTWUE(indexQuery, currentW);
+        final int nBands = LbEnhanced.nBands(length, LbEnhanced.defaultBands);
+        final int lastIndex = length - nBands;
+        if (indexStoppedLB == 0) {
+            minDist = LbEnhanced.bands(data, referenceOffset, data, queryOffset, length, currentW, nBands);
+            indexStoppedLB = nBands;
+        }
+        while (indexStoppedLB < lastIndex && minDist <= scoreToBeat) {
+            final double c = data[referenceOffset + indexStoppedLB];
+            if (c < LEQ[indexStoppedLB]) {
+                final double diff = LEQ[indexStoppedLB] - c;
+                minDist += diff * diff;
+            } else if (UEQ[indexStoppedLB] < c) {
+                final double diff = UEQ[indexStoppedLB] - c;
+                minDist += diff * diff;
+            }
+            indexStoppedLB++;
+        }
+        // the bands at the end were added with the ones at the start
+        if (indexStoppedLB >= lastIndex) indexStoppedLB = length;
+    }
+
+    private void tryLBImproved(final double scoreToBeat) {
+        final double[] LEQ = cache.getDTWLE(indexQuery, currentW);
+        final double[] UEQ = cache.getDTWUE(indexQuery, currentW);
+        final DistanceWorkspace workspace = DistanceWorkspace.local();
+        final double lb = LbImproved.distance(data, referenceOffset, data, queryOffset, length, UEQ, LEQ, currentW,
+                workspace.getRowA(length), workspace.getRowB(length), workspace.getRowC(length), scoreToBeat);
+        // an abandoned lower bound is at least scoreToBeat
+        minDist = Math.min(lb, scoreToBeat);
+    }
+
     /*------------------------------------------------------------------------------------------------------------------
         Lower bounds for WDTW
      -----------------------------------------------------------------------------------------------------------------*/
-    private void tryLBKimWDTW() {
-        final double diffFirsts = query.value(0) - reference.value(0);
-        final double diffLasts = query.value(query.numAttributes() - 2) - reference.value(reference.numAttributes() - 2);
-        minDist = diffFirsts * diffFirsts + diffLasts * diffLasts;
-        minDist *= currentWeightVector[0];
-        nOperationsLBKim = 2;
-        if (!cache.isMinFirst(indexQuery) && !cache.isMinFirst(indexReference) && !cache.isMinLast(indexQuery) && !cache.isMinLast(indexReference)) {
-            final double diffMin = cache.getMin(indexQuery) - cache.getMin(indexReference);
-            minDist += diffMin * diffMin * currentWeightVector[Math.abs(cache.getIMin(indexQuery) - cache.getIMin(indexReference))];
-            nOperationsLBKim++;
-        }
-        if (!cache.isMaxFirst(indexQuery) && !cache.isMaxFirst(indexReference) && !cache.isMaxLast(indexQuery) && !cache.isMaxLast(indexReference)) {
-            final double diffMax = cache.getMax(indexQuery) - cache.getMax(indexReference);
-            minDist += diffMax * diffMax * currentWeightVector[Math.abs(cache.getIMin(indexQuery) - cache.getIMin(indexReference))];
-            nOperationsLBKim++;
+    // hierarchical LB_Kim with the smallest weight, abandoned once it reaches scoreToBeat which is then a lower bound
+    private void tryLBKimWDTW(final double scoreToBeat) {
+        double minWeight = wdtwWeights[0];
+        for (double weight : wdtwWeights) minWeight = Math.min(minWeight, weight);
+        minDist = Math.min(scoreToBeat, LbKim.distance(data, queryOffset, data, referenceOffset, length,
+                LbKim.Cost.Squared, minWeight, Double.POSITIVE_INFINITY, scoreToBeat));
+    }
+
+    private void fillWDTWEnvelopes(final int index) {
+        for (int l = 0; l < LbWdtw.levels - 1; l++) {
+            wdtwUE[l] = cache.getWDTWUE(index, l + 1);
+            wdtwLE[l] = cache.getWDTWLE(index, l + 1);
         }
-        status = LBStatus.LB_Kim;
     }
 
+    // resumes from indexStoppedLB, see the multi-level bound of LbWdtw
     private void tryContinueLBWDTWQR(final double scoreToBeat) {
-        final int length = query.numAttributes() - 1;
         final double QMAX = cache.getMax(indexQuery);
         final double QMIN = cache.getMin(indexQuery);
-        this.minDist = 0.0;
-        this.indexStoppedLB = 0;
+        fillWDTWEnvelopes(indexQuery);
         while (indexStoppedLB < length && minDist <= scoreToBeat) {
             final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
-            final double c = reference.value(index);
-            if (c < QMIN) {
-                final double diff = QMIN - c;
-                minDist += diff * diff * currentWeightVector[0];
-            } else if (QMAX < c) {
-                final double diff = QMAX - c;
-                minDist += diff * diff * currentWeightVector[0];
-            }
+            minDist += LbWdtw.distance(data[referenceOffset + index], index, wdtwUE, wdtwLE, QMAX, QMIN, wdtwWeights);
             indexStoppedLB++;
         }
     }
 
     private void tryContinueLBWDTWRQ(final double scoreToBeat) {
-        final int length = reference.numAttributes() - 1;
         final double QMAX = cache.getMax(indexReference);
         final double QMIN = cache.getMin(indexReference);
-        this.minDist = 0.0;
-        this.indexStoppedLB = 0;
+        fillWDTWEnvelopes(indexReference);
         while (indexStoppedLB < length && minDist <= scoreToBeat) {
             final int index = cache.getIndexNthHighestVal(indexQuery, indexStoppedLB);
-            final double c = query.value(index);
-            if (c < QMIN) {
-                final double diff = QMIN - c;
-                minDist += diff * diff * currentWeightVector[0];
-            } else if (QMAX < c) {
-                final double diff = QMAX - c;
-                minDist += diff * diff * currentWeightVector[0];
-            }
+            minDist += LbWdtw.distance(data[queryOffset + index], index, wdtwUE, wdtwLE, QMAX, QMIN, wdtwWeights);
             indexStoppedLB++;
         }
     }
 
     private void tryFullLBWDTWQR() {
-        final int length = query.numAttributes() - 1;
         final double QMAX = cache.getMax(indexQuery);
         final double QMIN = cache.getMin(indexQuery);
+        fillWDTWEnvelopes(indexQuery);
         this.minDist = 0.0;
         this.indexStoppedLB = 0;
         while (indexStoppedLB < length) {
             final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
-            final double c = reference.value(index);
-            if (c < QMIN) {
-                final double diff = QMIN - c;
-                minDist += diff * diff;
-            } else if (QMAX < c) {
-                final double diff = QMAX - c;
-                minDist += diff * diff;
-            }
+            minDist += LbWdtw.distance(data[referenceOffset + index], index, wdtwUE, wdtwLE, QMAX, QMIN, wdtwWeights);
             indexStoppedLB++;
         }
-        this.minDist *= currentWeightVector[0];
     }
 
     private void tryFullLBWDTWRQ() {
-        final int length = reference.numAttributes() - 1;
         final double QMAX = cache.getMax(indexReference);
         final double QMIN = cache.getMin(indexReference);
+        fillWDTWEnvelopes(indexReference);
         this.minDist = 0.0;
         this.indexStoppedLB = 0;
         while (indexStoppedLB < length) {
             final int index = cache.getIndexNthHighestVal(indexQuery, indexStoppedLB);
-            final double c = query.value(index);
-            if (c < QMIN) {
-                final double diff = QMIN - c;
-                minDist += diff * diff;
-            } else if (QMAX < c) {
-                final double diff = QMAX - c;
-                minDist += diff * diff;
-            }
+            minDist += LbWdtw.distance(data[queryOffset + index], index, wdtwUE, wdtwLE, QMAX, QMIN, wdtwWeights);
             indexStoppedLB++;
         }
-        this.minDist *= currentWeightVector[0];
     }
 
     /*------------------------------------------------------------------------------------------------------------------
         Lower bounds for MSM
      -----------------------------------------------------------------------------------------------------------------*/
-    private void tryContinueLBMSM(final double scoreToBeat) {
-        final int length = query.numAttributes() - 1;
+    // hierarchical LB_Kim with split and merge costing at least c, abandoned once it reaches scoreToBeat which is then a lower bound
+    private void tryLBKimMSM(final double scoreToBeat) {
+        minDist = Math.min(scoreToBeat, LbKim.distance(data, queryOffset, data, referenceOffset, length,
+                LbKim.Cost.Absolute, 1, currentC, scoreToBeat));
+    }
+
+    // resumes from indexStoppedLB, see LbMsm for the bound
+    private void tryContinueLBMSMQR(final double scoreToBeat) {
         final double QMAX = cache.getMax(indexQuery);
         final double QMIN = cache.getMin(indexQuery);
-        this.minDist = Math.abs(query.value(0) - reference.value(0));
-        this.indexStoppedLB = 0;
+        if (indexStoppedLB == 0) this.minDist = Math.abs(data[queryOffset] - data[referenceOffset]);
         while (indexStoppedLB < length && minDist < scoreToBeat) {
-            int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
-            if (index > 0 && index < length - 1) {
-                final double curr = reference.value(index);
-                final double prev = reference.value(index - 1);
-                if (prev <= curr && curr < QMIN) {
-                    minDist += Math.min(Math.abs(reference.value(index) - QMIN), this.currentC);
-                } else if (prev >= curr && curr >= QMAX) {
-                    minDist += Math.min(Math.abs(reference.value(index) - QMAX), this.currentC);
+            final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
+            if (index > 0) {
+                final double curr = data[referenceOffset + index];
+                final double prev = data[referenceOffset + index - 1];
+                if (curr > QMAX) {
+                    minDist += Math.min(curr - QMAX, currentC + Math.max(0, curr - prev));
+                } else if (curr < QMIN) {
+                    minDist += Math.min(QMIN - curr, currentC + Math.max(0, prev - curr));
                 }
             }
             indexStoppedLB++;
         }
     }
 
-    private void tryFullLBMSM() {
-        final int length = query.numAttributes() - 1;
+    private void tryContinueLBMSMRQ(final double scoreToBeat) {
+        final double QMAX = cache.getMax(indexReference);
+        final double QMIN = cache.getMin(indexReference);
+        if (indexStoppedLB == 0) this.minDist = Math.abs(data[queryOffset] - data[referenceOffset]);
+        while (indexStoppedLB < length && minDist < scoreToBeat) {
+            final int index = cache.getIndexNthHighestVal(indexQuery, indexStoppedLB);
+            if (index > 0) {
+                final double curr = data[queryOffset + index];
+                final double prev = data[queryOffset + index - 1];
+                if (curr > QMAX) {
+                    minDist += Math.min(curr - QMAX, currentC + Math.max(0, curr - prev));
+                } else if (curr < QMIN) {
+                    minDist += Math.min(QMIN - curr, currentC + Math.max(0, prev - curr));
+                }
+            }
+            indexStoppedLB++;
+        }
+    }
+
+    private void tryFullLBMSMQR() {
         final double QMAX = cache.getMax(indexQuery);
         final double QMIN = cache.getMin(indexQuery);
-        this.minDist = Math.abs(query.value(0) - reference.value(0));
+        this.minDist = Math.abs(data[queryOffset] - data[referenceOffset]);
+        this.indexStoppedLB = 0;
+        while (indexStoppedLB < length) {
+            final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
+            if (index > 0) {
+                final double curr = data[referenceOffset + index];
+                final double prev = data[referenceOffset + index - 1];
+                if (curr > QMAX) {
+                    minDist += Math.min(curr - QMAX, currentC + Math.max(0, curr - prev));
+                } else if (curr < QMIN) {
+                    minDist += Math.min(QMIN - curr, currentC + Math.max(0, prev - curr));
+                }
+            }
+            indexStoppedLB++;
+        }
+    }
+
+    private void tryFullLBMSMRQ() {
+        final double QMAX = cache.getMax(indexReference);
+        final double QMIN = cache.getMin(indexReference);
+        this.minDist = Math.abs(data[queryOffset] - data[referenceOffset]);
         this.indexStoppedLB = 0;
         while (indexStoppedLB < length) {
-            int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
-            if (index > 0 && index < length - 1) {
-                final double curr = reference.value(index);
-                final double prev = reference.value(index - 1);
-                if (prev <= curr && curr < QMIN) {
-                    minDist += Math.min(Math.abs(reference.value(index) - QMIN), this.currentC);
-                } else if (prev >= curr && curr >= QMAX) {
-                    minDist += Math.min(Math.abs(reference.value(index) - QMAX), this.currentC);
+            final int index = cache.getIndexNthHighestVal(indexQuery, indexStoppedLB);
+            if (index > 0) {
+                final double curr = data[queryOffset + index];
+                final double prev = data[queryOffset + index - 1];
+                if (curr > QMAX) {
+                    minDist += Math.min(curr - QMAX, currentC + Math.max(0, curr - prev));
+                } else if (curr < QMIN) {
+                    minDist += Math.min(QMIN - curr, currentC + Math.max(0, prev - curr));
                 }
             }
             indexStoppedLB++;
@@ -537,14 +571,13 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
         Lower bounds for ERP
      -----------------------------------------------------------------------------------------------------------------*/
     private void tryContinueLBERPQR(final double scoreToBeat) {
-        final int length = query.numAttributes() - 1;
         final double[] LEQ = cache.getERPLE(indexQuery, currentG, currentBandSize);
         final double[] UEQ = cache.getERPUE(indexQuery, currentG, currentBandSize);
         this.minDist = 0.0;
         this.indexStoppedLB = 0;
         while (indexStoppedLB < length && minDist <= scoreToBeat) {
             final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
-            final double c = reference.value(index);
+            final double c = data[referenceOffset + index];
             if (c < LEQ[index]) {
                 final double diff = LEQ[index] - c;
                 minDist += diff * diff;
@@ -557,14 +590,13 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
     }
 
     private void tryContinueLBERPRQ(final double scoreToBeat) {
-        final int length = reference.numAttributes() - 1;
         final double[] LER = cache.getERPLE(indexReference, currentG, currentBandSize);
         final double[] UER = cache.getERPUE(indexReference, currentG, currentBandSize);
         this.minDist = 0.0;
         this.indexStoppedLB = 0;
         while (indexStoppedLB < length && minDist <= scoreToBeat) {
             final int index = cache.getIndexNthHighestVal(indexQuery, indexStoppedLB);
-            final double c = query.value(index);
+            final double c = data[queryOffset + index];
             if (c < LER[index]) {
                 final double diff = LER[index] - c;
                 minDist += diff * diff;
@@ -577,14 +609,13 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
     }
 
     private void tryFullLBERPQR() {
-        final int length = query.numAttributes() - 1;
         final double[] LEQ = cache.getERPLE(indexQuery, currentG, currentBandSize);
         final double[] UEQ = cache.getERPUE(indexQuery, currentG, currentBandSize);
         this.minDist = 0.0;
         this.indexStoppedLB = 0;
         while (indexStoppedLB < length) {
             final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
-            final double c = reference.value(index);
+            final double c = data[referenceOffset + index];
             if (c < LEQ[index]) {
                 final double diff = LEQ[index] - c;
                 minDist += diff * diff;
@@ -597,14 +628,13 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
     }
 
     private void tryFullLBERPRQ() {
-        final int length = reference.numAttributes() - 1;
         final double[] LER = cache.getERPLE(indexReference, currentG, currentBandSize);
         final double[] UER = cache.getERPUE(indexReference, currentG, currentBandSize);
         this.minDist = 0.0;
         this.indexStoppedLB = 0;
         while (indexStoppedLB < length) {
             final int index = cache.getIndexNthHighestVal(indexQuery, indexStoppedLB);
-            final double c = query.value(index);
+            final double c = data[queryOffset + index];
             if (c < LER[index]) {
                 final double diff = LER[index] - c;
                 minDist += diff * diff;
@@ -619,28 +649,33 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
     /*------------------------------------------------------------------------------------------------------------------
         Lower bounds for TWED
      -----------------------------------------------------------------------------------------------------------------*/
+    // resumes from indexStoppedLB, see the windowed bound of LbTwed
     private void tryContinueLBTWED(final double scoreToBeat) {
-        final int length = query.numAttributes() - 1;
-        final double q0 = query.value(0);
-        final double c0 = reference.value(0);
-        double diff = q0 - c0;
-        this.minDist = Math.min(diff * diff,
-                Math.min(q0 * q0 + currentNu + currentLambda,
-                        c0 * c0 + currentNu + currentLambda));
-        this.indexStoppedLB = 1;
+        final double[] LEQ = cache.getTWELE(indexQuery, currentNu);
+        final double[] UEQ = cache.getTWEUE(indexQuery, currentNu);
+        final double QMAX = cache.getMax(indexQuery);
+        final double QMIN = cache.getMin(indexQuery);
+        final double farMatch = currentNu * (LbTwed.window(length, currentNu) + 1);
+        double diff, local, global;
+        if (indexStoppedLB == 0) {
+            final double q0 = data[queryOffset];
+            final double c0 = data[referenceOffset];
+            diff = q0 - c0;
+            this.minDist = Math.min(diff * diff,
+                    Math.min(q0 * q0 + currentNu + currentLambda,
+                            c0 * c0 + currentNu + currentLambda));
+        }
         while (indexStoppedLB < length && minDist <= scoreToBeat) {
             final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
             if (index > 0) {
-                final double curr = reference.value(index);
-                final double prev = reference.value(index - 1);
-                final double max = Math.max(cache.getMax(indexQuery), prev);
-                final double min = Math.min(cache.getMin(indexQuery), prev);
-                if (curr < min) {
-                    diff = min - curr;
-                    this.minDist += Math.min(currentNu, diff * diff);
-                } else if (max < curr) {
-                    diff = max - curr;
-                    this.minDist += Math.min(currentNu, diff * diff);
+                final double curr = data[referenceOffset + index];
+                diff = curr > UEQ[index] ? curr - UEQ[index] : (curr < LEQ[index] ? LEQ[index] - curr : 0);
+                if (diff > 0) {
+                    local = diff * diff;
+                    diff = curr > QMAX ? curr - QMAX : (curr < QMIN ? QMIN - curr : 0);
+                    global = farMatch + diff * diff;
+                    diff = curr - data[referenceOffset + index - 1];
+                    this.minDist += Math.min(Math.min(local, global), diff * diff);
                 }
             }
             indexStoppedLB++;
@@ -648,27 +683,30 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
     }
 
     private void tryFullLBTWED() {
-        final int length = query.numAttributes() - 1;
-        final double q0 = query.value(0);
-        final double c0 = reference.value(0);
-        double diff = q0 - c0;
+        final double[] LEQ = cache.getTWELE(indexQuery, currentNu);
+        final double[] UEQ = cache.getTWEUE(indexQuery, currentNu);
+        final double QMAX = cache.getMax(indexQuery);
+        final double QMIN = cache.getMin(indexQuery);
+        final double farMatch = currentNu * (LbTwed.window(length, currentNu) + 1);
+        double diff, local, global;
+        final double q0 = data[queryOffset];
+        final double c0 = data[referenceOffset];
+        diff = q0 - c0;
         this.minDist = Math.min(diff * diff,
                 Math.min(q0 * q0 + currentNu + currentLambda,
                         c0 * c0 + currentNu + currentLambda));
-        this.indexStoppedLB = 1;
+        this.indexStoppedLB = 0;
         while (indexStoppedLB < length) {
             final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
             if (index > 0) {
-                final double curr = reference.value(index);
-                final double prev = reference.value(index - 1);
-                final double max = Math.max(cache.getMax(indexQuery), prev);
-                final double min = Math.min(cache.getMin(indexQuery), prev);
-                if (curr < min) {
-                    diff = min - curr;
-                    this.minDist += Math.min(currentNu, diff * diff);
-                } else if (max < curr) {
-                    diff = max - curr;
-                    this.minDist += Math.min(currentNu, diff * diff);
+                final double curr = data[referenceOffset + index];
+                diff = curr > UEQ[index] ? curr - UEQ[index] : (curr < LEQ[index] ? LEQ[index] - curr : 0);
+                if (diff > 0) {
+                    local = diff * diff;
+                    diff = curr > QMAX ? curr - QMAX : (curr < QMIN ? QMIN - curr : 0);
+                    global = farMatch + diff * diff;
+                    diff = curr - data[referenceOffset + index - 1];
+                    this.minDist += Math.min(Math.min(local, global), diff * diff);
                 }
             }
             indexStoppedLB++;
@@ -679,7 +717,6 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
         Lower bounds for LCSS
      -----------------------------------------------------------------------------------------------------------------*/
     private void tryContinueLBLCSS(final double scoreToBeat) {
-        final int length = query.numAttributes() - 1;
         final double ub = Math.abs(1.0 - scoreToBeat) * length;
         final double[] LEQ = cache.getLCSSLE(indexQuery, currentDelta, currentEpsilon);
         final double[] UEQ = cache.getLCSSUE(indexQuery, currentDelta, currentEpsilon);
@@ -688,7 +725,7 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
         this.indexStoppedLB = 0;
         while (indexStoppedLB < length && lcs > ub) {
             final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
-            if (reference.value(index) <= UEQ[index] && reference.value(index) >= LEQ[index]) {
+            if (data[referenceOffset + index] <= UEQ[index] && data[referenceOffset + index] >= LEQ[index]) {
                 lcs++;
             }
             indexStoppedLB++;
@@ -697,7 +734,6 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
     }
 
     private void tryFullLBLCSS() {
-        final int length = query.numAttributes() - 1;
         final double[] LEQ = cache.getLCSSLE(indexQuery, currentDelta, currentEpsilon);
         final double[] UEQ = cache.getLCSSUE(indexQuery, currentDelta, currentEpsilon);
         double lcs = 0;
@@ -705,7 +741,7 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
         this.indexStoppedLB = 0;
         while (indexStoppedLB < length) {
             final int index = cache.getIndexNthHighestVal(indexReference, indexStoppedLB);
-            if (reference.value(index) <= UEQ[index] && reference.value(index) >= LEQ[index]) {
+            if (data[referenceOffset + index] <= UEQ[index] && data[referenceOffset + index] >= LEQ[index]) {
                 lcs++;
             }
             indexStoppedLB++;
@@ -730,7 +766,7 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
                 tryContinueLBKeoghQR(scoreToBeat);
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 if (bestMinDist >= scoreToBeat) {
-                    if (indexStoppedLB < query.numAttributes() - 1) status = LBStatus.Partial_LB_KeoghQR;
+                    if (indexStoppedLB < length) status = LBStatus.Partial_LB_KeoghQR;
                     else status = LBStatus.Full_LB_KeoghQR;
                     return RefineReturnType.Pruned_with_LB;
                 } else status = LBStatus.Full_LB_KeoghQR;
@@ -742,13 +778,42 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
                 tryContinueLBKeoghRQ(scoreToBeat);
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 if (bestMinDist >= scoreToBeat) {
-                    if (indexStoppedLB < reference.numAttributes() - 1) status = LBStatus.Partial_LB_KeoghRQ;
+                    if (indexStoppedLB < length) status = LBStatus.Partial_LB_KeoghRQ;
                     else status = LBStatus.Full_LB_KeoghRQ;
                     return RefineReturnType.Pruned_with_LB;
                 } else status = LBStatus.Full_LB_KeoghRQ;
             case Full_LB_KeoghRQ:
+                indexStoppedLB = 0;
+                minDist = 0;
+            case Partial_LB_Enhanced:
+                if (bestMinDist >= scoreToBeat) return RefineReturnType.Pruned_with_LB;
+                tryContinueLBEnhanced(scoreToBeat);
+                if (minDist > bestMinDist) bestMinDist = minDist;
+                if (bestMinDist >= scoreToBeat) {
+                    if (indexStoppedLB < length) status = LBStatus.Partial_LB_Enhanced;
+                    else status = LBStatus.Full_LB_Enhanced;
+                    return RefineReturnType.Pruned_with_LB;
+                } else status = LBStatus.Full_LB_Enhanced;
+            case Full_LB_Enhanced:
+            case Partial_LB_Improved:
                 if (bestMinDist >= scoreToBeat) return RefineReturnType.Pruned_with_LB;
-                final DistanceResults res = DTW.distanceExt(query, reference, currentW);
+                tryLBImproved(scoreToBeat);
+                if (minDist > bestMinDist) bestMinDist = minDist;
+                if (bestMinDist >= scoreToBeat) {
+                    status = LBStatus.Partial_LB_Improved;
+                    return RefineReturnType.Pruned_with_LB;
+                } else status = LBStatus.Full_LB_Improved;
+            case Full_LB_Improved:
+                if (bestMinDist >= scoreToBeat) return RefineReturnType.Pruned_with_LB;
+                // the euclidean distance is the diagonal path, so it bounds the DTW distance for any window
+                final DistanceResults res = DTW.distanceExt(data, queryOffset, length, data, referenceOffset, length, currentW,
+                        Math.min(scoreToBeat, getEuclideanUpperBound()), DistanceWorkspace.local());
+                if (res.distance == Double.POSITIVE_INFINITY) {
+                    // abandoned, the distance is above scoreToBeat so keep it as a lower bound
+                    minDist = scoreToBeat;
+                    if (minDist > bestMinDist) bestMinDist = minDist;
+                    return RefineReturnType.Pruned_with_Dist;
+                }
                 minDist = res.distance;
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 status = LBStatus.Full_DTW;
@@ -771,13 +836,16 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
             case Previous_LB_WDTW:
             case Previous_WDTW:
                 if (bestMinDist * weightVector[0] >= scoreToBeat) return RefineReturnType.Pruned_with_LB;
+                tryLBKimWDTW(scoreToBeat);
+                if (minDist > bestMinDist) bestMinDist = minDist;
+                if (bestMinDist >= scoreToBeat) return RefineReturnType.Pruned_with_LB;
                 indexStoppedLB = 0;
                 minDist = 0;
             case Partial_LB_WDTWQR:
                 tryContinueLBWDTWQR(scoreToBeat);
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 if (bestMinDist >= scoreToBeat) {
-                    if (indexStoppedLB < query.numAttributes() - 1) status = LBStatus.Partial_LB_WDTWQR;
+                    if (indexStoppedLB < length) status = LBStatus.Partial_LB_WDTWQR;
                     else status = LBStatus.Full_LB_WDTWQR;
                     return RefineReturnType.Pruned_with_LB;
                 } else status = LBStatus.Full_LB_WDTWQR;
@@ -788,13 +856,19 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
                 tryContinueLBWDTWRQ(scoreToBeat);
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 if (bestMinDist >= scoreToBeat) {
-                    if (indexStoppedLB < query.numAttributes() - 1) status = LBStatus.Partial_LB_WDTWRQ;
+                    if (indexStoppedLB < length) status = LBStatus.Partial_LB_WDTWRQ;
                     else status = LBStatus.Full_LB_WDTWRQ;
                     return RefineReturnType.Pruned_with_LB;
                 } else status = LBStatus.Full_LB_WDTWRQ;
             case Full_LB_WDTWRQ:
                 if (bestMinDist >= scoreToBeat) return RefineReturnType.Pruned_with_LB;
-                minDist = WDTW.distance(query, reference, weightVector);
+                minDist = WDTW.distance(data, queryOffset, length, data, referenceOffset, length, weightVector, scoreToBeat, DistanceWorkspace.local());
+                if (minDist == Double.POSITIVE_INFINITY) {
+                    // abandoned, the distance is above scoreToBeat so keep it as a lower bound
+                    minDist = scoreToBeat;
+                    if (minDist > bestMinDist) bestMinDist = minDist;
+                    return RefineReturnType.Pruned_with_Dist;
+                }
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 status = LBStatus.Full_WDTW;
             case Full_WDTW:
@@ -814,20 +888,34 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
             case None:
             case Previous_LB_MSM:
             case Previous_MSM:
+                if (bestMinDist >= scoreToBeat) return RefineReturnType.Pruned_with_LB;
+                tryLBKimMSM(scoreToBeat);
+                if (minDist > bestMinDist) bestMinDist = minDist;
                 if (bestMinDist >= scoreToBeat) return RefineReturnType.Pruned_with_LB;
                 indexStoppedLB = 0;
                 minDist = 0;
-            case Partial_LB_MSM:
-                tryContinueLBMSM(scoreToBeat);
+            case Partial_LB_MSMQR:
+                tryContinueLBMSMQR(scoreToBeat);
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 if (bestMinDist >= scoreToBeat) {
-                    if (indexStoppedLB < query.numAttributes() - 1) status = LBStatus.Partial_LB_MSM;
-                    else status = LBStatus.Full_LB_MSM;
+                    if (indexStoppedLB < length) status = LBStatus.Partial_LB_MSMQR;
+                    else status = LBStatus.Full_LB_MSMQR;
                     return RefineReturnType.Pruned_with_LB;
-                } else status = LBStatus.Full_LB_MSM;
-            case Full_LB_MSM:
+                } else status = LBStatus.Full_LB_MSMQR;
+            case Full_LB_MSMQR:
+                indexStoppedLB = 0;
+                minDist = 0;
+            case Partial_LB_MSMRQ:
+                tryContinueLBMSMRQ(scoreToBeat);
+                if (minDist > bestMinDist) bestMinDist = minDist;
+                if (bestMinDist >= scoreToBeat) {
+                    if (indexStoppedLB < length) status = LBStatus.Partial_LB_MSMRQ;
+                    else status = LBStatus.Full_LB_MSMRQ;
+                    return RefineReturnType.Pruned_with_LB;
+                } else status = LBStatus.Full_LB_MSMRQ;
+            case Full_LB_MSMRQ:
                 if (bestMinDist >= scoreToBeat) return RefineReturnType.Pruned_with_LB;
-                minDist = MSM.distance1(query, reference, currentC);
+                minDist = MSM.distance1(data, queryOffset, length, data, referenceOffset, length, currentC, DistanceWorkspace.local());
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 status = LBStatus.Full_MSM;
             case Full_MSM:
@@ -856,7 +944,7 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
                 tryContinueLBERPQR(scoreToBeat);
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 if (bestMinDist >= scoreToBeat) {
-                    if (indexStoppedLB < query.numAttributes() - 1) status = LBStatus.Partial_LB_ERPQR;
+                    if (indexStoppedLB < length) status = LBStatus.Partial_LB_ERPQR;
                     else status = LBStatus.Full_LB_ERPQR;
                     return RefineReturnType.Pruned_with_LB;
                 } else status = LBStatus.Full_LB_ERPQR;
@@ -868,13 +956,13 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
                 tryContinueLBERPRQ(scoreToBeat);
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 if (bestMinDist >= scoreToBeat) {
-                    if (indexStoppedLB < reference.numAttributes() - 1) status = LBStatus.Partial_LB_ERPRQ;
+                    if (indexStoppedLB < length) status = LBStatus.Partial_LB_ERPRQ;
                     else status = LBStatus.Full_LB_ERPRQ;
                     return RefineReturnType.Pruned_with_LB;
                 } else status = LBStatus.Full_LB_ERPRQ;
             case Full_LB_ERPRQ:
                 if (bestMinDist >= scoreToBeat) return RefineReturnType.Pruned_with_LB;
-                final DistanceResults res = ERP.distanceExt(query, reference, currentG, currentBandSize);
+                final DistanceResults res = ERP.distanceExt(data, queryOffset, length, data, referenceOffset, length, currentG, currentBandSize, DistanceWorkspace.local());
                 minDist = res.distance;
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 status = LBStatus.Full_ERP;
@@ -904,13 +992,14 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
                 tryContinueLBTWED(scoreToBeat);
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 if (bestMinDist >= scoreToBeat) {
-                    if (indexStoppedLB < query.numAttributes() - 1) status = LBStatus.Partial_LB_TWE;
+                    if (indexStoppedLB < length) status = LBStatus.Partial_LB_TWE;
                     else status = LBStatus.Full_LB_TWE;
                     return RefineReturnType.Pruned_with_LB;
                 } else status = LBStatus.Full_LB_TWE;
             case Full_LB_TWE:
                 if (bestMinDist >= scoreToBeat) return RefineReturnType.Pruned_with_LB;
-                minDist = TWED.distance(query, reference, nu, lambda);
+                // no cutoff, an abandoned pair would stay in Full_LB_TWE and be recomputed by every later challenge
+                minDist = TWED.distance(data, queryOffset, length, data, referenceOffset, length, nu, lambda, DistanceWorkspace.local());
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 status = LBStatus.Full_TWE;
             case Full_TWE:
@@ -937,13 +1026,13 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
                 tryFullLBLCSS();
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 if (bestMinDist > scoreToBeat) {
-                    if (indexStoppedLB < query.numAttributes() - 1) status = LBStatus.Partial_LB_LCSS;
+                    if (indexStoppedLB < length) status = LBStatus.Partial_LB_LCSS;
                     else status = LBStatus.Full_LB_LCSS;
                     return RefineReturnType.Pruned_with_LB;
                 } else status = LBStatus.Full_LB_LCSS;
             case Full_LB_LCSS:
                 if (bestMinDist > scoreToBeat) return RefineReturnType.Pruned_with_LB;
-                final DistanceResults res = LCSS.distanceExt(query, reference, epsilon, delta);
+                final DistanceResults res = LCSS.distanceExt(data, queryOffset, length, data, referenceOffset, length, epsilon, delta, DistanceWorkspace.local());
                 minDist = res.distance;
                 if (minDist > bestMinDist) bestMinDist = minDist;
                 status = LBStatus.Full_LCSS;
@@ -969,14 +1058,6 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
         }
     }
 
-    public Instance getSequenceForOtherIndex(int index) {
-        if (index == indexQuery) {
-            return reference;
-        } else {
-            return query;
-        }
-    }
-
     public double getDistance(int window) {
         if ((status == LBStatus.Full_DTW ||
                 status == LBStatus.Full_ERP ||
@@ -1039,7 +1120,7 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
         return Double.compare(num1, num2);
     }
 
-    private double getDoubleValueForRanking() {
+    double getDoubleValueForRanking() {
         double thisD = this.bestMinDist;
 
         switch (status) {
@@ -1047,14 +1128,20 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
             case Full_DTW:
             case Full_LB_KeoghQR:
             case Full_LB_KeoghRQ:
-                return thisD / (query.numAttributes() - 1);
+                return thisD / (length);
             case LB_Kim:
                 return thisD / nOperationsLBKim;
             case Partial_LB_KeoghQR:
             case Partial_LB_KeoghRQ:
                 return thisD / indexStoppedLB;
+            case Full_LB_Enhanced:
+            case Full_LB_Improved:
+            case Partial_LB_Improved:
+                return thisD / (length);
+            case Partial_LB_Enhanced:
+                return thisD / indexStoppedLB;
             case Previous_DTW:
-                return 0.8 * thisD / (query.numAttributes() - 1);    // DTWDistance(w+1) should be tighter
+                return 0.8 * thisD / (length);    // DTWDistance(w+1) should be tighter
             case Previous_LB_DTW:
                 if (indexStoppedLB == 0) {
                     //lb kim
@@ -1068,23 +1155,25 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
             case Full_WDTW:
             case Full_LB_WDTWQR:
             case Full_LB_WDTWRQ:
-                return thisD / (query.numAttributes() - 1);
+                return thisD / (length);
             case Partial_LB_WDTWQR:
             case Partial_LB_WDTWRQ:
                 return thisD / indexStoppedLB;
             case Previous_WDTW:
-                return 0.8 * thisD / (query.numAttributes() - 1);
+                return 0.8 * thisD / (length);
             case Previous_LB_WDTW:
                 return thisD / oldIndexStoppedLB;
 
             // MSM
             case Full_MSM:
-            case Full_LB_MSM:
-                return thisD / (query.numAttributes() - 1);
-            case Partial_LB_MSM:
+            case Full_LB_MSMQR:
+            case Full_LB_MSMRQ:
+                return thisD / (length);
+            case Partial_LB_MSMQR:
+            case Partial_LB_MSMRQ:
                 return thisD / indexStoppedLB;
             case Previous_MSM:
-                return 0.8 * thisD / (query.numAttributes() - 1);
+                return 0.8 * thisD / (length);
             case Previous_LB_MSM:
                 return thisD / oldIndexStoppedLB;
 
@@ -1092,12 +1181,12 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
             case Full_ERP:
             case Full_LB_ERPQR:
             case Full_LB_ERPRQ:
-                return thisD / (query.numAttributes() - 1);
+                return thisD / (length);
             case Partial_LB_ERPQR:
             case Partial_LB_ERPRQ:
                 return thisD / indexStoppedLB;
             case Previous_Band_ERP:
-                return 0.8 * thisD / (query.numAttributes() - 1);
+                return 0.8 * thisD / (length);
             case Previous_G_LB_ERP:
             case Previous_Band_LB_ERP:
                 if (indexStoppedLB == 0) {
@@ -1111,22 +1200,22 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
             // TWE
             case Full_TWE:
             case Full_LB_TWE:
-                return thisD / (query.numAttributes() - 1);
+                return thisD / (length);
             case Partial_LB_TWE:
                 return thisD / indexStoppedLB;
             case Previous_TWE:
-                return 0.8 * thisD / (query.numAttributes() - 1);
+                return 0.8 * thisD / (length);
             case Previous_LB_TWE:
                 return thisD / oldIndexStoppedLB;
 
             // LCSS
             case Full_LCSS:
             case Full_LB_LCSS:
-                return thisD / (query.numAttributes() - 1);
+                return thisD / (length);
             case Partial_LB_LCSS:
                 return thisD / indexStoppedLB;
             case Previous_LCSS:
-                return 0.8 * thisD / (query.numAttributes() - 1);
+                return 0.8 * thisD / (length);
             case Previous_LB_LCSS:
                 return thisD / oldIndexStoppedLB;
             case None:
@@ -1170,14 +1259,6 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
         return bestMinDist;
     }
 
-    public Instance getQuery() {
-        return query;
-    }
-
-    public Instance getReference() {
-        return reference;
-    }
-
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
     // Internal types
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
@@ -1189,9 +1270,12 @@ public class LazyAssessNN implements Comparable<LazyAssessNN> {
         None, LB_Kim,
         Partial_LB_KeoghQR, Full_LB_KeoghQR, Partial_LB_KeoghRQ, Full_LB_KeoghRQ,   // DTW
         Previous_LB_DTW, Previous_DTW, Full_DTW, Partial_DTW,                       // DTW
+        Partial_LB_Enhanced, Full_LB_Enhanced,                                      // DTW
+        Partial_LB_Improved, Full_LB_Improved,                                      // DTW
         Partial_LB_WDTWQR, Partial_LB_WDTWRQ, Full_LB_WDTWQR, Full_LB_WDTWRQ,       // WDTW
         Previous_LB_WDTW, Previous_WDTW, Full_WDTW,                                 // WDTW
-        Partial_LB_MSM, Full_LB_MSM, Previous_LB_MSM, Previous_MSM, Full_MSM,       // MSM
+        Partial_LB_MSMQR, Partial_LB_MSMRQ, Full_LB_MSMQR, Full_LB_MSMRQ,           // MSM
+        Previous_LB_MSM, Previous_MSM, Full_MSM,                                    // MSM
         Partial_LB_ERPQR, Partial_LB_ERPRQ, Full_LB_ERPQR, Full_LB_ERPRQ,           // ERP
         Previous_G_LB_ERP, Previous_Band_LB_ERP, Previous_Band_ERP, Full_ERP,       // ERP
         Partial_LB_TWE, Full_LB_TWE, Previous_LB_TWE, Previous_TWE, Full_TWE,       // TWE
@@ -0,0 +1,104 @@
+/* Copyright (C) 2018 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of FastEE.
+ FastEE is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ LbEnhanced is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
+package timeseriesweka.elasticDistances;
+
+import timeseriesweka.fastWWS.SequenceStatsCache;
+import utilities.IndexSort;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
+ *
+ * @author Chang Wei Tan, Francois Petitjean, Geoff Webb
+ *
+ * One LazyAssessNN per sequence, reused for every current sequence of FastWWS, and the challengers of the
+ * current sequence. The challengers are ranked by computing the ranking value of each one once into a double[]
+ * and sorting their indices, instead of sorting the objects with a comparator that evaluates the ranking
+ * value of both sides at every comparison.
+ * The ranking values change little from one parameter to the next, so once ranked the challengers are
+ * re-ranked from their previous order, which is close to sorted.
+ */
+public class LazyAssessNNPool implements Iterable<LazyAssessNN> {
+    private final LazyAssessNN[] lazyAssessNNS;     // LazyAssessNN of each sequence
+    private final int[] challengers;                // sequences of the challengers, in ranking order once sorted
+    private final int[] buffer;                     // working memory for the sort
+    private final double[] rankingValues;           // ranking value of each sequence
+    private int nChallengers;                       // number of challengers
+    private boolean ranked;                         // if the challengers have been sorted since they were added
+
+    public LazyAssessNNPool(final SequenceStatsCache cache, final int n) {
+        lazyAssessNNS = new LazyAssessNN[n];
+        for (int i = 0; i < n; ++i) {
+            lazyAssessNNS[i] = new LazyAssessNN(cache);
+        }
+        challengers = new int[n];
+        buffer = new int[n];
+        rankingValues = new double[n];
+    }
+
+    public LazyAssessNN get(final int sequence) {
+        return lazyAssessNNS[sequence];
+    }
+
+    public void clear() {
+        nChallengers = 0;
+        ranked = false;
+    }
+
+    public void add(final int sequence) {
+        challengers[nChallengers++] = sequence;
+        ranked = false;
+    }
+
+    public int size() {
+        return nChallengers;
+    }
+
+    /**
+     * Rank the challengers by increasing ranking value, keeping the previous order on ties
+     */
+    public void sort() {
+        for (int k = 0; k < nChallengers; k++) {
+            final int sequence = challengers[k];
+            rankingValues[sequence] = lazyAssessNNS[sequence].getDoubleValueForRanking();
+        }
+        if (ranked) {
+            IndexSort.resort(challengers, nChallengers, rankingValues, buffer);
+        } else {
+            IndexSort.sort(challengers, nChallengers, rankingValues, buffer);
+            ranked = true;
+        }
+    }
+
+    /**
+     * Iterate over the challengers, in ranking order once sorted
+     */
+    @Override
+    public Iterator<LazyAssessNN> iterator() {
+        return new Iterator<LazyAssessNN>() {
+            private int k = 0;
+
+            @Override
+            public boolean hasNext() {
+                return k < nChallengers;
+            }
+
+            @Override
+            public LazyAssessNN next() {
+                if (k >= nChallengers) throw new NoSuchElementException();
+                return lazyAssessNNS[challengers[k++]];
+            }
+        };
+    }
+}
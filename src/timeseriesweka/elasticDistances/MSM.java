@@ -25,7 +25,6 @@ import weka.core.Instances;
  * MSM distance
  */
 public class MSM extends ElasticDistances {
-    private final static double[][] matrixD = new double[MAX_SEQ_LENGTH][MAX_SEQ_LENGTH];
     public static double[] msmParams = {
             // <editor-fold defaultstate="collapsed" desc="hidden for space">
             0.01,
@@ -149,72 +148,100 @@ public class MSM extends ElasticDistances {
     }
 
     public static double distance1(final Instance first, final Instance second, final double c) {
-        final int m = first.numAttributes() - 1;
-        final int n = second.numAttributes() - 1;
+        return distance1(first, second, c, DistanceWorkspace.local());
+    }
+
+    public static double distance1(final Instance first, final Instance second, final double c, final DistanceWorkspace workspace) {
+        return distance1(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, c, workspace);
+    }
+
+    public static double distance1(final double[] first, final int firstOffset, final int m,
+                                   final double[] second, final int secondOffset, final int n,
+                                   final double c, final DistanceWorkspace workspace) {
+        double[] prev = workspace.getRowA(n);
+        double[] curr = workspace.getRowB(n);
+        double[] tmp;
         int i, j;
         double d1, d2, d3;
 
         // Initialization
-        matrixD[0][0] = Math.abs(first.value(0) - second.value(0));
-        for (i = 1; i < m; i++) {
-            matrixD[i][0] = matrixD[i - 1][0] + editCost(first.value(i), first.value(i - 1), second.value(0), c);
-        }
-        for (i = 1; i < n; i++) {
-            matrixD[0][i] = matrixD[0][i - 1] + editCost(second.value(i), first.value(0), second.value(i - 1), c);
+        curr[0] = Math.abs(first[firstOffset] - second[secondOffset]);
+        for (j = 1; j < n; j++) {
+            curr[j] = curr[j - 1] + editCost(second[secondOffset + j], first[firstOffset], second[secondOffset + j - 1], c);
         }
 
         // Main Loop
         for (i = 1; i < m; i++) {
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
+
+            curr[0] = prev[0] + editCost(first[firstOffset + i], first[firstOffset + i - 1], second[secondOffset], c);
             for (j = 1; j < n; j++) {
-                d1 = matrixD[i - 1][j - 1] + Math.abs(first.value(i) - second.value(j));
-                d2 = matrixD[i - 1][j] + editCost(first.value(i), first.value(i - 1), second.value(j), c);
-                d3 = matrixD[i][j - 1] + editCost(second.value(j), first.value(i), second.value(j - 1), c);
-                matrixD[i][j] = Math.min(d1, Math.min(d2, d3));
+                d1 = prev[j - 1] + Math.abs(first[firstOffset + i] - second[secondOffset + j]);
+                d2 = prev[j] + editCost(first[firstOffset + i], first[firstOffset + i - 1], second[secondOffset + j], c);
+                d3 = curr[j - 1] + editCost(second[secondOffset + j], first[firstOffset + i], second[secondOffset + j - 1], c);
+                curr[j] = Math.min(d1, Math.min(d2, d3));
             }
         }
         // Output
-        return matrixD[m - 1][n - 1];
+        return curr[n - 1];
     }
 
     public static double distance1(final Instance first, final Instance second, final double c, final double cutOffValue) {
-        final int m = first.numAttributes() - 1;
-        final int n = second.numAttributes() - 1;
+        return distance1(first, second, c, cutOffValue, DistanceWorkspace.local());
+    }
+
+    public static double distance1(final Instance first, final Instance second, final double c, final double cutOffValue, final DistanceWorkspace workspace) {
+        return distance1(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, c, cutOffValue, workspace);
+    }
+
+    public static double distance1(final double[] first, final int firstOffset, final int m,
+                                   final double[] second, final int secondOffset, final int n,
+                                   final double c, final double cutOffValue, final DistanceWorkspace workspace) {
+        double[] prev = workspace.getRowA(n);
+        double[] curr = workspace.getRowB(n);
+        double[] tmp;
         int i, j;
         double d1, d2, d3;
         double min;
 
         // Initialization
-        matrixD[0][0] = Math.abs(first.value(0) - second.value(0));
-        for (i = 1; i < m; i++) {
-            matrixD[i][0] = matrixD[i - 1][0] + editCost(first.value(i), first.value(i - 1), second.value(0), c);
-        }
-        for (i = 1; i < n; i++) {
-            matrixD[0][i] = matrixD[0][i - 1] + editCost(second.value(i), first.value(0), second.value(i - 1), c);
+        curr[0] = Math.abs(first[firstOffset] - second[secondOffset]);
+        for (j = 1; j < n; j++) {
+            curr[j] = curr[j - 1] + editCost(second[secondOffset + j], first[firstOffset], second[secondOffset + j - 1], c);
         }
 
         // Main Loop
         for (i = 1; i < m; i++) {
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
+
+            curr[0] = prev[0] + editCost(first[firstOffset + i], first[firstOffset + i - 1], second[secondOffset], c);
             min = cutOffValue;
             for (j = 1; j < n; j++) {
-                d1 = matrixD[i - 1][j - 1] + Math.abs(first.value(i) - second.value(j));
-                d2 = matrixD[i - 1][j] + editCost(first.value(i), first.value(i - 1), second.value(j), c);
-                d3 = matrixD[i][j - 1] + editCost(second.value(j), first.value(i), second.value(j - 1), c);
-                matrixD[i][j] = Math.min(d1, Math.min(d2, d3));
+                d1 = prev[j - 1] + Math.abs(first[firstOffset + i] - second[secondOffset + j]);
+                d2 = prev[j] + editCost(first[firstOffset + i], first[firstOffset + i - 1], second[secondOffset + j], c);
+                d3 = curr[j - 1] + editCost(second[secondOffset + j], first[firstOffset + i], second[secondOffset + j - 1], c);
+                curr[j] = Math.min(d1, Math.min(d2, d3));
 
-                if (matrixD[i][j] >= cutOffValue) {
-                    matrixD[i][j] = Double.MAX_VALUE;
+                if (curr[j] >= cutOffValue) {
+                    curr[j] = Double.POSITIVE_INFINITY;
                 }
 
-                if (matrixD[i][j] < min) {
-                    min = matrixD[i][j];
+                if (curr[j] < min) {
+                    min = curr[j];
                 }
             }
             if (min >= cutOffValue) {
-                return Double.MAX_VALUE;
+                return Double.POSITIVE_INFINITY;
             }
         }
         // Output
-        return matrixD[m - 1][n - 1];
+        return curr[n - 1];
     }
 
     private static double editCost(final double new_point, final double x, final double y, final double c) {
@@ -229,6 +256,22 @@ public class MSM extends ElasticDistances {
         return dist;
     }
 
+    /**
+     * Working memory needed by the MSM distance,
+     * including the copies of the series made by the overloads taking Instances
+     *
+     * @param length length of the series
+     * @return size of the workspace buffers in bytes
+     */
+    public static long memoryRequired(final int length) {
+        return 2L * Double.BYTES * length + DistanceWorkspace.seriesMemory(length);
+    }
+
+    @Override
+    public final long getMemoryRequired(final int length) {
+        return memoryRequired(length);
+    }
+
     @Override
     public final String toString() {
         return "MSM";
@@ -25,9 +25,6 @@ import weka.core.Instances;
  * TWED distance
  */
 public class TWED extends ElasticDistances {
-    private final static double[][] D = new double[MAX_SEQ_LENGTH + 1][MAX_SEQ_LENGTH + 1];
-    private final static double[] Di1 = new double[MAX_SEQ_LENGTH + 1];
-    private final static double[] Dj1 = new double[MAX_SEQ_LENGTH + 1];
 
     public static double[] twe_nuParams = {
             // <editor-fold defaultstate="collapsed" desc="hidden for space">
@@ -73,79 +70,139 @@ public class TWED extends ElasticDistances {
 
     @Override
     public final double distance(final Instance first, final Instance second, final double cutOffValue) {
-        return distance(first, second, nu, lambda);
+        return distance(first, second, nu, lambda, cutOffValue);
     }
 
     public static double distance(final Instance first, final Instance second, final double nu, final double lambda) {
-        final int m = first.numAttributes() - 1;
-        final int n = second.numAttributes() - 1;
+        return distance(first, second, nu, lambda, DistanceWorkspace.local());
+    }
+
+    public static double distance(final Instance first, final Instance second, final double nu, final double lambda, final DistanceWorkspace workspace) {
+        return distance(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, nu, lambda, workspace);
+    }
 
-        double diff, dist;
-        double dmin, htrans;
+    public static double distance(final double[] first, final int firstOffset, final int m,
+                                  final double[] second, final int secondOffset, final int n,
+                                  final double nu, final double lambda, final DistanceWorkspace workspace) {
+        return distance(first, firstOffset, m, second, secondOffset, n, nu, lambda, Double.POSITIVE_INFINITY, workspace);
+    }
+
+    public static double distance(final Instance first, final Instance second, final double nu, final double lambda, final double cutOffValue) {
+        return distance(first, second, nu, lambda, cutOffValue, DistanceWorkspace.local());
+    }
+
+    public static double distance(final Instance first, final Instance second, final double nu, final double lambda, final double cutOffValue, final DistanceWorkspace workspace) {
+        return distance(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, nu, lambda, cutOffValue, workspace);
+    }
+
+    /**
+     * TWED distance with early abandon.
+     * Every path to the last cell goes through each row and all the costs are positive,
+     * so the distance is abandoned as soon as the minimum of a row is above the cutoff.
+     * The test is strict so that a distance equal to the cutoff is still returned.
+     *
+     * @return TWED distance, or POSITIVE_INFINITY if it is greater than cutOffValue
+     */
+    public static double distance(final double[] first, final int firstOffset, final int m,
+                                  final double[] second, final int secondOffset, final int n,
+                                  final double nu, final double lambda, final double cutOffValue, final DistanceWorkspace workspace) {
+        double[] prev = workspace.getRowA(n + 1);
+        double[] curr = workspace.getRowB(n + 1);
+        double[] tmp;
+        final double[] Di1 = workspace.getRowC(m + 1);
+        final double[] Dj1 = workspace.getRowD(n + 1);
+
+        double diff, dist, cost;
+        double dmin, htrans, rowMin;
         int i, j;
 
         // local costs initializations
         for (j = 1; j <= n; j++) {
             if (j > 1) {
-                Dj1[j] = second.value(j - 2) - second.value(j - 1);
+                Dj1[j] = second[secondOffset + j - 2] - second[secondOffset + j - 1];
                 Dj1[j] = Dj1[j] * Dj1[j];
             } else {
-                Dj1[j] = second.value(j - 1) * second.value(j - 1);
+                Dj1[j] = second[secondOffset + j - 1] * second[secondOffset + j - 1];
             }
         }
 
         for (i = 1; i <= m; i++) {
             if (i > 1) {
-                Di1[i] = first.value(i - 2) - first.value(i - 1);
+                Di1[i] = first[firstOffset + i - 2] - first[firstOffset + i - 1];
                 Di1[i] = Di1[i] * Di1[i];
             } else {
-                Di1[i] = first.value(i - 1) * first.value(i - 1);
-            }
-
-            for (j = 1; j <= n; j++) {
-                D[i][j] = first.value(i - 1) - second.value(j - 1);
-                D[i][j] = D[i][j] * D[i][j];
-                if (i > 1 && j > 1) {
-                    diff = first.value(i - 2) - second.value(j - 2);
-                    D[i][j] += diff * diff;
-                }
+                Di1[i] = first[firstOffset + i - 1] * first[firstOffset + i - 1];
             }
         }
 
         // border of the cost matrix initialization
-        D[0][0] = 0;
-        for (i = 1; i <= m; i++) {
-            D[i][0] = D[i - 1][0] + Di1[i];
-        }
+        curr[0] = 0;
         for (j = 1; j <= n; j++) {
-            D[0][j] = D[0][j - 1] + Dj1[j];
+            curr[j] = curr[j - 1] + Dj1[j];
         }
 
         for (i = 1; i <= m; i++) {
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
+
+            curr[0] = prev[0] + Di1[i];
+            rowMin = curr[0];
             for (j = 1; j <= n; j++) {
+                // local cost, computed on the fly
+                cost = first[firstOffset + i - 1] - second[secondOffset + j - 1];
+                cost = cost * cost;
+                if (i > 1 && j > 1) {
+                    diff = first[firstOffset + i - 2] - second[secondOffset + j - 2];
+                    cost += diff * diff;
+                }
+
                 htrans = Math.abs(i - j);
                 if (j > 1 && i > 1) {
                     htrans *= 2;
                 }
-                dmin = D[i - 1][j - 1] + nu * htrans + D[i][j];
+                dmin = prev[j - 1] + nu * htrans + cost;
 
-                dist = Di1[i] + D[i - 1][j] + lambda + nu;
+                dist = Di1[i] + prev[j] + lambda + nu;
                 if (dmin > dist) {
                     dmin = dist;
                 }
-                dist = Dj1[j] + D[i][j - 1] + lambda + nu;
+                dist = Dj1[j] + curr[j - 1] + lambda + nu;
                 if (dmin > dist) {
                     dmin = dist;
                 }
 
-                D[i][j] = dmin;
+                curr[j] = dmin;
+                if (dmin < rowMin)
+                    rowMin = dmin;
             }
+            //Early abandon
+            if (rowMin > cutOffValue)
+                return Double.POSITIVE_INFINITY;
         }
 
-        dist = D[m][n];
+        dist = curr[n];
         return dist;
     }
 
+    /**
+     * Working memory needed by the TWED distance,
+     * including the copies of the series made by the overloads taking Instances
+     *
+     * @param length length of the series
+     * @return size of the workspace buffers in bytes
+     */
+    public static long memoryRequired(final int length) {
+        return 4L * Double.BYTES * (length + 1) + DistanceWorkspace.seriesMemory(length);
+    }
+
+    @Override
+    public final long getMemoryRequired(final int length) {
+        return memoryRequired(length);
+    }
+
     @Override
     public final String toString() {
         return "TWED";
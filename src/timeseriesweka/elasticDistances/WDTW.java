@@ -26,8 +26,6 @@ import weka.core.Instances;
  */
 public class WDTW extends ElasticDistances {
     private final static double WEIGHT_MAX = 1;
-    // initialise the matrices with the maximum sequence length for faster computation
-    private final static double[][] matrixD = new double[MAX_SEQ_LENGTH][MAX_SEQ_LENGTH];
     private double g;
     private double[] weightVector;
 
@@ -57,84 +55,152 @@ public class WDTW extends ElasticDistances {
     }
 
     public static double distance(final Instance first, final Instance second, final double[] weightVector) {
-        final int m = first.numAttributes() - 1;
-        final int n = second.numAttributes() - 1;
+        return distance(first, second, weightVector, DistanceWorkspace.local());
+    }
+
+    public static double distance(final Instance first, final Instance second, final double[] weightVector, final DistanceWorkspace workspace) {
+        return distance(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, weightVector, workspace);
+    }
+
+    public static double distance(final double[] first, final int firstOffset, final int m,
+                                  final double[] second, final int secondOffset, final int n,
+                                  final double[] weightVector, final DistanceWorkspace workspace) {
+        double[] prev = workspace.getRowA(n);
+        double[] curr = workspace.getRowB(n);
+        double[] tmp;
         double diff;
         double minDistance;
         int i, j;
 
         //first value
-        diff = first.value(0) - second.value(0);
-        matrixD[0][0] = weightVector[0] * diff * diff;
-
-        //first column
-        for (i = 1; i < m; i++) {
-            diff = first.value(i) - second.value(0);
-            matrixD[i][0] = matrixD[i - 1][0] + weightVector[i] * diff * diff;
-        }
+        diff = first[firstOffset] - second[secondOffset];
+        curr[0] = weightVector[0] * diff * diff;
 
         //top row
         for (j = 1; j < n; j++) {
-            diff = first.value(0) - second.value(j);
-            matrixD[0][j] = matrixD[0][j - 1] + weightVector[j] * diff * diff;
+            diff = first[firstOffset] - second[secondOffset + j];
+            curr[j] = curr[j - 1] + weightVector[j] * diff * diff;
         }
 
         //warp rest
         for (i = 1; i < m; i++) {
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
+
+            //first column
+            diff = first[firstOffset + i] - second[secondOffset];
+            curr[0] = prev[0] + weightVector[i] * diff * diff;
+
             for (j = 1; j < n; j++) {
                 //calculate distances
-                minDistance = Math.min(matrixD[i][j - 1], Math.min(matrixD[i - 1][j], matrixD[i - 1][j - 1]));
-                diff = first.value(i) - second.value(j);
-                matrixD[i][j] = minDistance + weightVector[Math.abs(i - j)] * diff * diff;
+                minDistance = Math.min(curr[j - 1], Math.min(prev[j], prev[j - 1]));
+                diff = first[firstOffset + i] - second[secondOffset + j];
+                curr[j] = minDistance + weightVector[Math.abs(i - j)] * diff * diff;
             }
         }
-        return matrixD[m - 1][n - 1];
+        return curr[n - 1];
     }
 
     public static double distance(final Instance first, final Instance second, final double[] weightVector, final double cutOffValue) {
-        boolean tooBig;
-        int m = first.numAttributes() - 1;
-        int n = second.numAttributes() - 1;
-        double diff;
-        double minDistance;
+        return distance(first, second, weightVector, cutOffValue, DistanceWorkspace.local());
+    }
 
-        //first value
-        diff = first.value(0) - second.value(0);
-        matrixD[0][0] = weightVector[0] * diff * diff;
-        if (matrixD[0][0] > cutOffValue) {
-            return Double.MAX_VALUE;
-        }
+    public static double distance(final Instance first, final Instance second, final double[] weightVector, final double cutOffValue, final DistanceWorkspace workspace) {
+        return distance(workspace.copyFirst(first), 0, first.numAttributes() - 1,
+                workspace.copySecond(second), 0, second.numAttributes() - 1, weightVector, cutOffValue, workspace);
+    }
 
-        //first column
-        for (int i = 1; i < m; i++) {
-            diff = first.value(i) - second.value(0);
-            matrixD[i][0] = matrixD[i - 1][0] + weightVector[i] * diff * diff;
-        }
+    /**
+     * WDTW distance pruned against the cutoff, as in PrunedDTW.
+     * A cell above the cutoff cannot be on a path of cost below the cutoff, so each row only computes
+     * the cells from the first one of the previous row under the cutoff, and stops once it is past the
+     * last one of the previous row under the cutoff and its own value is above the cutoff.
+     * The distance is abandoned when a whole row is above the cutoff.
+     * Cells equal to the cutoff are kept so that a distance equal to the cutoff is still returned.
+     *
+     * @return WDTW distance, or POSITIVE_INFINITY if it is greater than cutOffValue
+     */
+    public static double distance(final double[] first, final int firstOffset, final int m,
+                                  final double[] second, final int secondOffset, final int n,
+                                  final double[] weightVector, final double cutOffValue, final DistanceWorkspace workspace) {
+        double[] prev = workspace.getRowA(n);
+        double[] curr = workspace.getRowB(n);
+        double[] tmp;
+        double diff, minDistance, value;
+        // cells of the previous row under the cutoff are in [start, end)
+        int start, end, nextStart, nextEnd;
+        int i, j;
 
-        //top row
-        for (int j = 1; j < n; j++) {
-            diff = first.value(0) - second.value(j);
-            matrixD[0][j] = matrixD[0][j - 1] + weightVector[j] * diff * diff;
+        //top row, increasing so it stops at the first cell above the cutoff
+        diff = first[firstOffset] - second[secondOffset];
+        curr[0] = weightVector[0] * diff * diff;
+        if (curr[0] > cutOffValue) {
+            return Double.POSITIVE_INFINITY;
+        }
+        for (j = 1; j < n; j++) {
+            diff = first[firstOffset] - second[secondOffset + j];
+            curr[j] = curr[j - 1] + weightVector[j] * diff * diff;
+            if (curr[j] > cutOffValue) {
+                break;
+            }
         }
+        start = 0;
+        end = j;
 
         //warp rest
-        for (int i = 1; i < m; i++) {
-            tooBig = true;
-            for (int j = 1; j < n; j++) {
-                //calculate distances
-                minDistance = Math.min(matrixD[i][j - 1], Math.min(matrixD[i - 1][j], matrixD[i - 1][j - 1]));
-                diff = first.value(i) - second.value(j);
-                matrixD[i][j] = minDistance + weightVector[Math.abs(i - j)] * diff * diff;
-                if (tooBig && matrixD[i][j] < cutOffValue) {
-                    tooBig = false;
+        for (i = 1; i < m; i++) {
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
+
+            nextStart = -1;
+            nextEnd = start;
+            for (j = start; j < n; j++) {
+                minDistance = (j < end) ? prev[j] : Double.POSITIVE_INFINITY;
+                if (j > start) {
+                    if (j - 1 < end && prev[j - 1] < minDistance) minDistance = prev[j - 1];
+                    if (curr[j - 1] < minDistance) minDistance = curr[j - 1];
+                }
+                diff = first[firstOffset + i] - second[secondOffset + j];
+                value = minDistance + weightVector[Math.abs(i - j)] * diff * diff;
+                curr[j] = value;
+                if (value <= cutOffValue) {
+                    if (nextStart < 0) nextStart = j;
+                    nextEnd = j + 1;
+                } else if (j >= end) {
+                    // nothing under the cutoff above or on the left anymore
+                    break;
                 }
             }
             //Early abandon
-            if (tooBig) {
-                return Double.MAX_VALUE;
+            if (nextStart < 0) {
+                return Double.POSITIVE_INFINITY;
             }
+            start = nextStart;
+            end = nextEnd;
+        }
+        if (end < n) {
+            return Double.POSITIVE_INFINITY;
         }
-        return matrixD[m - 1][n - 1];
+        return curr[n - 1];
+    }
+
+    /**
+     * Working memory needed by the WDTW distance, excluding the weight vector,
+     * including the copies of the series made by the overloads taking Instances
+     *
+     * @param length length of the series
+     * @return size of the workspace buffers in bytes
+     */
+    public static long memoryRequired(final int length) {
+        return 2L * Double.BYTES * length + DistanceWorkspace.seriesMemory(length);
+    }
+
+    @Override
+    public final long getMemoryRequired(final int length) {
+        return memoryRequired(length);
     }
 
     @Override
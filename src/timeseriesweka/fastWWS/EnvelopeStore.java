@@ -0,0 +1,138 @@
+/* Copyright (C) 2018 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of FastEE.
+ FastEE is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ LbEnhanced is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
+package timeseriesweka.fastWWS;
+
+import timeseriesweka.datasets.TimeSeriesDataset;
+import timeseriesweka.lowerBounds.Envelope;
+
+import java.util.Arrays;
+
+/**
+ * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
+ *
+ * @author Chang Wei Tan, Francois Petitjean, Geoff Webb
+ *
+ * Envelopes of the sequences of a dataset for several windows.
+ * Each sequence keeps the envelopes of its last few windows, the least recently used one is replaced,
+ * so alternating between windows or between measures sharing a window does not rebuild them.
+ * An envelope of window [i - left, i + right] is grown in one pass from the one of [i - left + 1, i + right - 1]
+ * when it is stored, otherwise it is streamed from the sequence, both in O(n).
+ * The envelopes of a sequence can be requested from several threads as long as they use the same window.
+ */
+class EnvelopeStore {
+    private final TimeSeriesDataset train;
+    private final int length;
+    private final double[][][] upper, lower;    // envelopes of each slot of each sequence, allocated on first use
+    private final int[][] lefts, rights;        // window of each slot, -1 if empty
+    private final long[][] lastUses;            // last access of each slot
+    private final long[] clocks;                // number of accesses of each sequence
+
+    EnvelopeStore(final TimeSeriesDataset train, final int nSlots) {
+        final int nSequences = train.size();
+        this.train = train;
+        this.length = train.length();
+        this.upper = new double[nSequences][nSlots][];
+        this.lower = new double[nSequences][nSlots][];
+        this.lefts = new int[nSequences][nSlots];
+        this.rights = new int[nSequences][nSlots];
+        this.lastUses = new long[nSequences][nSlots];
+        this.clocks = new long[nSequences];
+        for (int i = 0; i < nSequences; i++) {
+            Arrays.fill(lefts[i], -1);
+            Arrays.fill(rights[i], -1);
+        }
+    }
+
+    double[] getUpper(final int i, final int left, final int right) {
+        return upper[i][slot(i, left, right)];
+    }
+
+    double[] getLower(final int i, final int left, final int right) {
+        return lower[i][slot(i, left, right)];
+    }
+
+    /**
+     * Lock of the envelopes of sequence i, envelopes derived from them can be computed under it
+     */
+    Object lock(final int i) {
+        return lefts[i];
+    }
+
+    private int slot(final int i, final int left, final int right) {
+        synchronized (lock(i)) {
+            // windows reaching past the sequence all give the same envelope
+            return find(i, Math.min(left, length - 1), Math.min(right, length - 1));
+        }
+    }
+
+    private int find(final int i, final int left, final int right) {
+        final int[] ls = lefts[i];
+        final int[] rs = rights[i];
+        final long[] uses = lastUses[i];
+        int source = -1, victim = 0;
+        for (int s = 0; s < ls.length; s++) {
+            if (ls[s] == left && rs[s] == right) {
+                uses[s] = ++clocks[i];
+                return s;
+            }
+            if (ls[s] == left - 1 && rs[s] == right - 1) source = s;
+            if (uses[s] < uses[victim]) victim = s;
+        }
+        if (victim == source) {
+            // keep the source, replace the least recently used of the others
+            victim = (source == 0) ? 1 : 0;
+            for (int s = 0; s < ls.length; s++) {
+                if (s != source && uses[s] < uses[victim]) victim = s;
+            }
+        }
+
+        if (upper[i][victim] == null) {
+            upper[i][victim] = new double[length];
+            lower[i][victim] = new double[length];
+        }
+        final double[] U = upper[i][victim];
+        final double[] L = lower[i][victim];
+        final double[] data = train.getData();
+        final int offset = train.offset(i);
+        if (source >= 0 && left > 0 && right > 0) {
+            grow(data, offset, upper[i][source], lower[i][source], U, L);
+        } else {
+            Envelope.local().fill(data, offset, length, left, right, U, L);
+        }
+        ls[victim] = left;
+        rs[victim] = right;
+        uses[victim] = ++clocks[i];
+        return victim;
+    }
+
+    /**
+     * Envelope of window [i - left, i + right] from the one of [i - left + 1, i + right - 1],
+     * the window of i is the union of the smaller windows of i - 1 and i + 1 and of i itself
+     */
+    private void grow(final double[] data, final int offset, final double[] prevU, final double[] prevL,
+                      final double[] U, final double[] L) {
+        double max, min;
+        for (int j = 0; j < length; j++) {
+            max = min = data[offset + j];
+            if (j > 0) {
+                max = Math.max(max, prevU[j - 1]);
+                min = Math.min(min, prevL[j - 1]);
+            }
+            if (j < length - 1) {
+                max = Math.max(max, prevU[j + 1]);
+                min = Math.min(min, prevL[j + 1]);
+            }
+            U[j] = max;
+            L[j] = min;
+        }
+    }
+}
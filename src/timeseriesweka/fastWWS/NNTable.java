@@ -0,0 +1,122 @@
+/* Copyright (C) 2018 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of FastEE.
+ FastEE is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ LbEnhanced is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
+package timeseriesweka.fastWWS;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
+ *
+ * @author Chang Wei Tan, Francois Petitjean, Geoff Webb
+ *
+ * Nearest neighbour of each sequence for each parameter, stored in flat arrays indexed by paramId * n + sequence
+ * instead of one object per cell.
+ * The status is a bitset, its words are updated atomically as the neighbours of different sequences
+ * can be set at the same time when the table is built on several threads.
+ */
+public class NNTable {
+    public enum Status {
+        NN,                         // This is the Nearest Neighbour
+        BC,                         // Best Candidate so far
+    }
+
+    private final int nParams;              // number of parameters
+    private final int n;                    // number of sequences
+    private final int[] index;              // index of the nearest neighbour in train[]
+    private final int[] r;                  // window validity
+    private final double[] distance;        // distance to the nearest neighbour
+    private final AtomicLongArray nn;       // bit set if it is the nearest neighbour, else the best candidate so far
+
+    public NNTable(final int nParams, final int n) {
+        final int size = nParams * n;
+        this.nParams = nParams;
+        this.n = n;
+        this.index = new int[size];
+        this.r = new int[size];
+        this.distance = new double[size];
+        this.nn = new AtomicLongArray((size + 63) >>> 6);
+        Arrays.fill(index, Integer.MIN_VALUE);              // Will be an invalid, negative, index.
+        Arrays.fill(r, Integer.MAX_VALUE);                  // Max: stands for "haven't found yet"
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);    // Infinity: stands for "not computed yet".
+    }
+
+    private int cell(final int paramId, final int i) {
+        return paramId * n + i;
+    }
+
+    public void set(final int paramId, final int i, final int index, final int r, final double distance, final Status status) {
+        final int cell = cell(paramId, i);
+        this.index[cell] = index;
+        this.r[cell] = r;
+        this.distance[cell] = distance;
+        setStatus(cell, status);
+    }
+
+    public void set(final int paramId, final int i, final int index, final double distance, final Status status) {
+        set(paramId, i, index, -1, distance, status);
+    }
+
+    private void setStatus(final int cell, final Status status) {
+        final int word = cell >>> 6;
+        final long bit = 1L << cell;
+        long old;
+        do {
+            old = nn.get(word);
+        } while (!nn.compareAndSet(word, old, status == Status.NN ? old | bit : old & ~bit));
+    }
+
+    public int getIndex(final int paramId, final int i) {
+        return index[cell(paramId, i)];
+    }
+
+    public int getR(final int paramId, final int i) {
+        return r[cell(paramId, i)];
+    }
+
+    public double getDistance(final int paramId, final int i) {
+        return distance[cell(paramId, i)];
+    }
+
+    public boolean isNN(final int paramId, final int i) {
+        final int cell = cell(paramId, i);
+        return (nn.get(cell >>> 6) & (1L << cell)) != 0;
+    }
+
+    public int numParams() {
+        return nParams;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Write the table to a csv file, one line per parameter and sequence
+     *
+     * @param fileName file to write to
+     */
+    public void export(final String fileName) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName))) {
+            out.println("paramId,sequence,nn,r,distance,status");
+            for (int paramId = 0; paramId < nParams; paramId++) {
+                for (int i = 0; i < n; i++) {
+                    out.println(paramId + "," + i + "," + getIndex(paramId, i) + "," + getR(paramId, i) + "," +
+                            getDistance(paramId, i) + "," + (isNN(paramId, i) ? Status.NN : Status.BC));
+                }
+            }
+        }
+    }
+}
@@ -11,12 +11,14 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.fastWWS;
 
-import timeseriesweka.lowerBounds.LbErp;
-import timeseriesweka.lowerBounds.LbKeogh;
-import timeseriesweka.lowerBounds.LbLcss;
+import timeseriesweka.datasets.TimeSeriesDataset;
+import timeseriesweka.lowerBounds.LbTwed;
+import timeseriesweka.lowerBounds.LbWdtw;
+import utilities.IndexSort;
 import weka.core.Instances;
 
 import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
@@ -31,37 +33,34 @@ public class SequenceStatsCache {
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
     // Fields
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
-    private double[][] dtwLEs, dtwUEs, erpLEs, erpUEs, lcssLEs, lcssUEs;
+    private static final int ENVELOPES_PER_SEQUENCE = 4;
+    private static final long MIN_PARALLEL_VALUES = 1 << 16;  // below this, the sequences are sorted in sequence
+    private EnvelopeStore envelopes;
+    private double[][] erpLEs, erpUEs, lcssLEs, lcssUEs;
     private double[] mins, maxs;
     private int[] indexMaxs, indexMins;
     private boolean[] isMinFirst, isMinLast, isMaxFirst, isMaxLast;
-    private int[] lastDTWWindowComputed;
-    private double[] lastERPBandComputed;
+    private double[] lastERPGComputed, lastERPBandComputed;
     private int[] lastLCSSDeltaComputed;
+    private double[] lastLCSSEpsilonComputed;
     private int currentWindow;
-    private Instances train;
-    private IndexedDouble[][] indicesSortedByAbsoluteValue;
-    private double[][] lbDistances;
+    private TimeSeriesDataset train;
+    private short[] shortIndicesSortedByAbsoluteValue;  // indices of each sequence by decreasing absolute value
+    private int[] indicesSortedByAbsoluteValue;         // same when the length does not fit in a short
 
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
     // Constructor
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
     public SequenceStatsCache(Instances train, int startingWindow) {
+        this(new TimeSeriesDataset(train), startingWindow);
+    }
+
+    public SequenceStatsCache(TimeSeriesDataset train, int startingWindow) {
         this.train = train;
-        int nSequences = train.numInstances();
-        int length = train.instance(0).numAttributes() - 1;
-        this.dtwLEs = new double[nSequences][length];
-        this.dtwUEs = new double[nSequences][length];
-        this.erpLEs = new double[nSequences][length];
-        this.erpUEs = new double[nSequences][length];
-        this.lcssLEs = new double[nSequences][length];
-        this.lcssUEs = new double[nSequences][length];
-        this.lastDTWWindowComputed = new int[nSequences];
-        Arrays.fill(this.lastDTWWindowComputed, -1);
-        this.lastERPBandComputed = new double[nSequences];
-        Arrays.fill(this.lastERPBandComputed, -1);
-        this.lastLCSSDeltaComputed = new int[nSequences];
-        Arrays.fill(this.lastLCSSDeltaComputed, -1);
+        final double[] data = train.getData();
+        final int nSequences = train.size();
+        final int length = train.length();
+        initEnvelopes();
         this.currentWindow = startingWindow;
         this.mins = new double[nSequences];
         this.maxs = new double[nSequences];
@@ -71,13 +70,22 @@ public class SequenceStatsCache {
         this.isMinLast = new boolean[nSequences];
         this.isMaxFirst = new boolean[nSequences];
         this.isMaxLast = new boolean[nSequences];
-        this.indicesSortedByAbsoluteValue = new IndexedDouble[nSequences][length];
-        for (int i = 0; i < train.numInstances(); i++) {
+        if (length <= Short.MAX_VALUE + 1) {
+            this.shortIndicesSortedByAbsoluteValue = new short[nSequences * length];
+        } else {
+            this.indicesSortedByAbsoluteValue = new int[nSequences * length];
+        }
+        IntStream sequences = IntStream.range(0, nSequences);
+        if ((long) nSequences * length >= MIN_PARALLEL_VALUES) sequences = sequences.parallel();
+        sequences.forEach(i -> {
+            final int offset = train.offset(i);
+            final int[] sorted = new int[length];
+            final double[] absoluteValues = new double[length];
             double min = Double.POSITIVE_INFINITY;
             double max = Double.NEGATIVE_INFINITY;
             int indexMin = -1, indexMax = -1;
-            for (int j = 0; j < train.instance(i).numAttributes() - 1; j++) {
-                double elt = train.instance(i).value(j);
+            for (int j = 0; j < length; j++) {
+                double elt = data[offset + j];
                 if (elt > max) {
                     max = elt;
                     indexMax = j;
@@ -86,79 +94,167 @@ public class SequenceStatsCache {
                     min = elt;
                     indexMin = j;
                 }
-                indicesSortedByAbsoluteValue[i][j] = new IndexedDouble(j, Math.abs(elt));
+                sorted[j] = j;
+                absoluteValues[j] = Math.abs(elt);
             }
             indexMaxs[i] = indexMax;
             indexMins[i] = indexMin;
             mins[i] = min;
             maxs[i] = max;
             isMinFirst[i] = (indexMin == 0);
-            isMinLast[i] = (indexMin == (train.instance(i).numAttributes() - 2));
+            isMinLast[i] = (indexMin == (length - 1));
             isMaxFirst[i] = (indexMax == 0);
-            isMaxLast[i] = (indexMax == (train.instance(i).numAttributes() - 2));
-            Arrays.sort(indicesSortedByAbsoluteValue[i], (v1, v2) -> -Double.compare(v1.value, v2.value));
-        }
+            isMaxLast[i] = (indexMax == (length - 1));
+            IndexSort.sortDescending(sorted, length, absoluteValues, new int[length]);
+            if (shortIndicesSortedByAbsoluteValue != null) {
+                for (int j = 0; j < length; j++) {
+                    shortIndicesSortedByAbsoluteValue[i * length + j] = (short) sorted[j];
+                }
+            } else {
+                System.arraycopy(sorted, 0, indicesSortedByAbsoluteValue, i * length, length);
+            }
+        });
     }
 
+    /**
+     * Cache sharing the statistics of another cache, with its own envelopes.
+     * Classifiers using different parameters can then run at the same time without evicting each other's envelopes.
+     *
+     * @param other cache of the same dataset
+     */
+    public SequenceStatsCache(SequenceStatsCache other) {
+        this.train = other.train;
+        this.currentWindow = other.currentWindow;
+        this.mins = other.mins;
+        this.maxs = other.maxs;
+        this.indexMins = other.indexMins;
+        this.indexMaxs = other.indexMaxs;
+        this.isMinFirst = other.isMinFirst;
+        this.isMinLast = other.isMinLast;
+        this.isMaxFirst = other.isMaxFirst;
+        this.isMaxLast = other.isMaxLast;
+        this.shortIndicesSortedByAbsoluteValue = other.shortIndicesSortedByAbsoluteValue;
+        this.indicesSortedByAbsoluteValue = other.indicesSortedByAbsoluteValue;
+        initEnvelopes();
+    }
+
+    private void initEnvelopes() {
+        final int nSequences = train.size();
+        this.envelopes = new EnvelopeStore(train, ENVELOPES_PER_SEQUENCE);
+        // the ERP and LCSS envelopes of a sequence are allocated on first use, most caches only need one of them
+        this.erpLEs = new double[nSequences][];
+        this.erpUEs = new double[nSequences][];
+        this.lcssLEs = new double[nSequences][];
+        this.lcssUEs = new double[nSequences][];
+        this.lastERPGComputed = new double[nSequences];
+        this.lastERPBandComputed = new double[nSequences];
+        Arrays.fill(this.lastERPBandComputed, -1);
+        this.lastLCSSDeltaComputed = new int[nSequences];
+        Arrays.fill(this.lastLCSSDeltaComputed, -1);
+        this.lastLCSSEpsilonComputed = new double[nSequences];
+    }
 
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
     // Methods
     // --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- --- ---
     public double[] getDTWLE(int i, int w) {
-        if (lastDTWWindowComputed[i] != w) {
-            computeDTWLEandUE(i, w);
-        }
-        return dtwLEs[i];
+        return envelopes.getLower(i, w, w);
     }
 
     public double[] getDTWUE(int i, int w) {
-        if (lastDTWWindowComputed[i] != w) {
-            computeDTWLEandUE(i, w);
-        }
-        return dtwUEs[i];
+        return envelopes.getUpper(i, w, w);
+    }
+
+    // same window as in LbWdtw.fillUL, for level from 1 to LbWdtw.levels - 1
+    public double[] getWDTWLE(int i, int level) {
+        final int w = LbWdtw.window(train.length(), level);
+        return envelopes.getLower(i, w, w);
+    }
+
+    public double[] getWDTWUE(int i, int level) {
+        final int w = LbWdtw.window(train.length(), level);
+        return envelopes.getUpper(i, w, w);
+    }
+
+    // same window as in LbTwed.fillUL
+    public double[] getTWELE(int i, double nu) {
+        final int w = LbTwed.window(train.length(), nu);
+        return envelopes.getLower(i, w, w);
     }
 
+    public double[] getTWEUE(int i, double nu) {
+        final int w = LbTwed.window(train.length(), nu);
+        return envelopes.getUpper(i, w, w);
+    }
+
+    // the ERP and LCSS envelopes of a sequence are computed by one thread at a time
     public double[] getERPLE(int i, double g, double bandSize) {
-        if (lastERPBandComputed[i] != bandSize) {
-            computeERPLEandUE(i, g, bandSize);
+        synchronized (envelopes.lock(i)) {
+            if (lastERPBandComputed[i] != bandSize || lastERPGComputed[i] != g) {
+                computeERPLEandUE(i, g, bandSize);
+            }
+            return erpLEs[i];
         }
-        return erpLEs[i];
     }
 
     public double[] getERPUE(int i, double g, double bandSize) {
-        if (lastERPBandComputed[i] != bandSize) {
-            computeERPLEandUE(i, g, bandSize);
+        synchronized (envelopes.lock(i)) {
+            if (lastERPBandComputed[i] != bandSize || lastERPGComputed[i] != g) {
+                computeERPLEandUE(i, g, bandSize);
+            }
+            return erpUEs[i];
         }
-        return erpUEs[i];
     }
 
     public double[] getLCSSLE(int i, int delta, double epsilon) {
-        if (lastLCSSDeltaComputed[i] != delta) {
-            computeLCSSLEandUE(i, delta, epsilon);
+        synchronized (envelopes.lock(i)) {
+            if (lastLCSSDeltaComputed[i] != delta || lastLCSSEpsilonComputed[i] != epsilon) {
+                computeLCSSLEandUE(i, delta, epsilon);
+            }
+            return lcssLEs[i];
         }
-        return lcssLEs[i];
     }
 
     public double[] getLCSSUE(int i, int delta, double epsilon) {
-        if (lastLCSSDeltaComputed[i] != delta) {
-            computeERPLEandUE(i, delta, epsilon);
+        synchronized (envelopes.lock(i)) {
+            if (lastLCSSDeltaComputed[i] != delta || lastLCSSEpsilonComputed[i] != epsilon) {
+                computeLCSSLEandUE(i, delta, epsilon);
+            }
+            return lcssUEs[i];
         }
-        return lcssUEs[i];
-    }
-
-    private void computeDTWLEandUE(int i, int w) {
-        LbKeogh.fillUL(train.instance(i), w, dtwUEs[i], dtwLEs[i]);
-        this.lastDTWWindowComputed[i] = w;
     }
 
     private void computeERPLEandUE(int i, double g, double bandSize) {
-        LbErp.fillUL(train.instance(i), g, bandSize, erpUEs[i], erpLEs[i]);
+        // same window as in LbErp.fillUL, widened to the gap value
+        final int r = (int) Math.ceil(train.length() * bandSize);
+        final double[] U = envelopes.getUpper(i, r, r);
+        final double[] L = envelopes.getLower(i, r, r);
+        if (erpUEs[i] == null) {
+            erpUEs[i] = new double[U.length];
+            erpLEs[i] = new double[U.length];
+        }
+        for (int j = 0; j < U.length; j++) {
+            erpUEs[i][j] = Math.max(U[j], g);
+            erpLEs[i][j] = Math.min(L[j], g);
+        }
+        this.lastERPGComputed[i] = g;
         this.lastERPBandComputed[i] = bandSize;
     }
 
     private void computeLCSSLEandUE(int i, int delta, double epsilon) {
-        LbLcss.fillUL(train.instance(i), epsilon, delta, lcssUEs[i], lcssLEs[i]);
+        // same window as in LbLcss.fillUL, widened by epsilon
+        final double[] U = envelopes.getUpper(i, delta, delta + 1);
+        final double[] L = envelopes.getLower(i, delta, delta + 1);
+        if (lcssUEs[i] == null) {
+            lcssUEs[i] = new double[U.length];
+            lcssLEs[i] = new double[U.length];
+        }
+        for (int j = 0; j < U.length; j++) {
+            lcssUEs[i][j] = U[j] + epsilon;
+            lcssLEs[i][j] = L[j] - epsilon;
+        }
         this.lastLCSSDeltaComputed[i] = delta;
+        this.lastLCSSEpsilonComputed[i] = epsilon;
     }
 
     public boolean isMinFirst(int i) {
@@ -193,33 +289,13 @@ public class SequenceStatsCache {
         return indexMins[i];
     }
 
-    public int getIndexNthHighestVal(int i, int n) {
-        return indicesSortedByAbsoluteValue[i][n].index;
-    }
-
-    public void initLbDistances() {
-        lbDistances = new double[train.numInstances()][train.numInstances()];
-    }
-
-    public void setLbDistances(double lb, int qIndex, int cIndex){
-        lbDistances[qIndex][cIndex] = lb;
-    }
-
-    public double getLbDistances(int qIndex, int cIndex) {
-        return lbDistances[qIndex][cIndex];
-    }
-
-    public boolean lbDistanceExist(int qIndex, int cIndex){
-        return lbDistances[qIndex][cIndex] != 0;
+    public TimeSeriesDataset getDataset() {
+        return train;
     }
 
-    class IndexedDouble {
-        double value;
-        int index;
-
-        IndexedDouble(int index, double value) {
-            this.value = value;
-            this.index = index;
-        }
+    public int getIndexNthHighestVal(int i, int n) {
+        final int length = train.length();
+        if (shortIndicesSortedByAbsoluteValue != null) return shortIndicesSortedByAbsoluteValue[i * length + n];
+        return indicesSortedByAbsoluteValue[i * length + n];
     }
 }
@@ -0,0 +1,94 @@
+/* Copyright (C) 2018 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of FastEE.
+ FastEE is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ LbEnhanced is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
+package timeseriesweka.lowerBounds;
+
+/**
+ * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
+ *
+ * @author Chang Wei Tan, Francois Petitjean, Geoff Webb
+ *
+ * Streaming envelope of a sequence, the minimum and maximum of a sliding window around each point.
+ * Uses the monotonic deques of Lemire's algorithm so the envelope is built in O(n) whatever the window,
+ * see paper https://arxiv.org/abs/cs/0610046
+ * The deques hold indices in primitive ring buffers that are reused between calls.
+ * An envelope builder is not thread safe, the lower bounds use the one returned by {@link #local()}.
+ */
+public class Envelope {
+    private static final ThreadLocal<Envelope> LOCAL = ThreadLocal.withInitial(Envelope::new);
+
+    private int[] upper = new int[0];   // indices of the decreasing maxima of the window
+    private int[] lower = new int[0];   // indices of the increasing minima of the window
+
+    public Envelope() {
+    }
+
+    /**
+     * Envelope builder of the current thread
+     *
+     * @return envelope builder owned by the calling thread
+     */
+    public static Envelope local() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Fill U[i] and L[i] with the maximum and minimum of the sequence over [i - left, i + right]
+     *
+     * @param a      values of the sequence
+     * @param offset index of the first value of the sequence in a
+     * @param length length of the sequence
+     * @param left   number of points before i in the window
+     * @param right  number of points after i in the window
+     * @param U      upper envelope
+     * @param L      lower envelope
+     */
+    public void fill(final double[] a, final int offset, final int length, final int left, final int right,
+                     final double[] U, final double[] L) {
+        if (length <= 0) return;
+        final int before = Math.min(left, length);
+        final int after = Math.min(right, length);
+        // a window holds at most before + after + 1 indices, plus the one leaving it
+        final int mask = ensureCapacity(Math.min(length, before + after + 2)) - 1;
+        final int[] upper = this.upper;
+        final int[] lower = this.lower;
+        int upperFirst = 0, upperEnd = 0, lowerFirst = 0, lowerEnd = 0;
+        int i, j;
+        double value;
+
+        for (j = 0; j < length + after; j++) {
+            if (j < length) {
+                value = a[offset + j];
+                while (upperEnd > upperFirst && a[offset + upper[(upperEnd - 1) & mask]] <= value) upperEnd--;
+                upper[upperEnd++ & mask] = j;
+                while (lowerEnd > lowerFirst && a[offset + lower[(lowerEnd - 1) & mask]] >= value) lowerEnd--;
+                lower[lowerEnd++ & mask] = j;
+            }
+            i = j - after;
+            if (i >= 0) {
+                while (upper[upperFirst & mask] < i - before) upperFirst++;
+                while (lower[lowerFirst & mask] < i - before) lowerFirst++;
+                U[i] = a[offset + upper[upperFirst & mask]];
+                L[i] = a[offset + lower[lowerFirst & mask]];
+            }
+        }
+    }
+
+    private int ensureCapacity(final int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, size));
+        if (capacity < size) capacity <<= 1;
+        if (upper.length < capacity) {
+            upper = new int[capacity];
+            lower = new int[capacity];
+        }
+        return upper.length;
+    }
+}
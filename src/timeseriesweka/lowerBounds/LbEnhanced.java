@@ -0,0 +1,127 @@
+/* Copyright (C) 2018 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of FastEE.
+ FastEE is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ LbEnhanced is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
+package timeseriesweka.lowerBounds;
+
+import timeseriesweka.datasets.TimeSeriesDataset;
+import weka.core.Instance;
+
+/**
+ * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
+ *
+ * @author Chang Wei Tan, Francois Petitjean, Geoff Webb
+ *
+ * LB_Enhanced lower bound for DTW
+ * Every warping path goes through each of the L shaped bands at the start and end of the sequences,
+ * so the smallest cost of each band is added, and LB_Keogh covers the points in between.
+ * See paper https://arxiv.org/abs/1808.09617
+ */
+public class LbEnhanced {
+    public static final int defaultBands = 5;       // number of bands at each end of the sequences
+
+    /**
+     * Number of bands at each end of sequences of the given length, so that the bands do not overlap
+     */
+    public static int nBands(final int length, final int v) {
+        return Math.max(1, Math.min((length - 1) / 2, v));
+    }
+
+    /**
+     * Cost of the bands at both ends of the sequences, including the first and last points
+     *
+     * @param a       values of the first sequence
+     * @param aOffset index of the first value of the first sequence
+     * @param b       values of the second sequence
+     * @param bOffset index of the first value of the second sequence
+     * @param length  length of the sequences
+     * @param w       warping window
+     * @param nBands  number of bands at each end, see nBands
+     * @return sum of the smallest cost of each band
+     */
+    public static double bands(final double[] a, final int aOffset, final double[] b, final int bOffset,
+                               final int length, final int w, final int nBands) {
+        final int l = length - 1;
+        double diff = a[aOffset] - b[bOffset];
+        double res = diff * diff;
+        if (l == 0) return res;
+        diff = a[aOffset + l] - b[bOffset + l];
+        res += diff * diff;
+
+        int i, j, right, rightEnd;
+        double minL, minR;
+        for (i = 1; i < nBands; i++) {
+            right = l - i;
+            diff = a[aOffset + i] - b[bOffset + i];
+            minL = diff * diff;
+            diff = a[aOffset + right] - b[bOffset + right];
+            minR = diff * diff;
+            for (j = Math.max(0, i - w); j < i; j++) {
+                rightEnd = l - j;
+                diff = a[aOffset + i] - b[bOffset + j];
+                minL = Math.min(minL, diff * diff);
+                diff = a[aOffset + j] - b[bOffset + i];
+                minL = Math.min(minL, diff * diff);
+                diff = a[aOffset + right] - b[bOffset + rightEnd];
+                minR = Math.min(minR, diff * diff);
+                diff = a[aOffset + rightEnd] - b[bOffset + right];
+                minR = Math.min(minR, diff * diff);
+            }
+            res += minL + minR;
+        }
+        return res;
+    }
+
+    public static double distance(final Instance a, final Instance b, final double[] U, final double[] L, final int w) {
+        return distance(TimeSeriesDataset.toArray(a), 0, TimeSeriesDataset.toArray(b), 0, a.numAttributes() - 1,
+                U, L, w, defaultBands, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * LB_Enhanced of two sequences of the same length
+     *
+     * @param a           values of the first sequence
+     * @param aOffset     index of the first value of the first sequence
+     * @param b           values of the second sequence
+     * @param bOffset     index of the first value of the second sequence
+     * @param length      length of the sequences
+     * @param U           upper envelope of the second sequence for window w
+     * @param L           lower envelope of the second sequence for window w
+     * @param w           warping window
+     * @param v           number of bands at each end
+     * @param cutOffValue the lower bound is abandoned once it reaches this value
+     * @return lower bound, or Double.MAX_VALUE if it is at least cutOffValue
+     */
+    public static double distance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length,
+                                  final double[] U, final double[] L, final int w, final int v, final double cutOffValue) {
+        final int nBands = nBands(length, v);
+        double res = bands(a, aOffset, b, bOffset, length, w, nBands);
+        if (res >= cutOffValue)
+            return Double.MAX_VALUE;
+
+        final int lastIndex = length - nBands;
+        for (int i = nBands; i < lastIndex; i++) {
+            final double c = a[aOffset + i];
+            if (c < L[i]) {
+                final double diff = L[i] - c;
+                res += diff * diff;
+                if (res >= cutOffValue)
+                    return Double.MAX_VALUE;
+            } else if (U[i] < c) {
+                final double diff = U[i] - c;
+                res += diff * diff;
+                if (res >= cutOffValue)
+                    return Double.MAX_VALUE;
+            }
+        }
+
+        return res;
+    }
+}
@@ -11,6 +11,7 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.lowerBounds;
 
+import timeseriesweka.datasets.TimeSeriesDataset;
 import weka.core.Instance;
 
 /**
@@ -22,54 +23,46 @@ import weka.core.Instance;
  * See paper http://www.vldb.org/conf/2004/RS21P2.PDF
  */
 public class LbErp {
-    private static double[] s = new double[2];
-
     public static double distance(final Instance a, final Instance b, final double g) {
-        final int m = a.numAttributes() - 1;
-        final int n = b.numAttributes() - 1;
+        return distance(TimeSeriesDataset.toArray(a), 0, a.numAttributes() - 1,
+                TimeSeriesDataset.toArray(b), 0, b.numAttributes() - 1, g);
+    }
 
+    public static double distance(final double[] a, final int aOffset, final int m,
+                                  final double[] b, final int bOffset, final int n, final double g) {
         if (m == n) {
-            sum2(a, b, g);
-            return Math.abs(s[0] - s[1]);
+            double sa = 0, sb = 0;
+            for (int i = 0; i < m; i++) {
+                sa += Math.abs(a[aOffset + i] - g);
+                sb += Math.abs(b[bOffset + i] - g);
+            }
+            return Math.abs(sa - sb);
         } else {
-            return Math.abs(sum(a, g) - sum(b, g));
+            return Math.abs(sum(a, aOffset, m, g) - sum(b, bOffset, n, g));
         }
     }
 
-    private static double sum(final Instance a, final double g) {
+    private static double sum(final double[] a, final int offset, final int length, final double g) {
         double s = 0;
-        for (int i = 0; i < a.numAttributes() - 1; i++) {
-            s += Math.abs(a.value(i) - g);
+        for (int i = 0; i < length; i++) {
+            s += Math.abs(a[offset + i] - g);
         }
 
         return s;
     }
 
-    private static void sum2(final Instance a, final Instance b, final double g) {
-        s = new double[2];
-        for (int i = 0; i < a.numAttributes() - 1; i++) {
-            s[0] += Math.abs(a.value(i) - g);
-            s[1] += Math.abs(b.value(i) - g);
-        }
+    public static void fillUL(final Instance a, final double g, final double bandSize, final double[] U, final double[] L) {
+        fillUL(TimeSeriesDataset.toArray(a), 0, a.numAttributes() - 1, g, bandSize, U, L);
     }
 
-    public static void fillUL(final Instance a, final double g, final double bandSize, final double[] U, final double[] L) {
-        final int length = a.numAttributes() - 1;
+    public static void fillUL(final double[] a, final int offset, final int length, final double g, final double bandSize,
+                              final double[] U, final double[] L) {
         final int r = (int) Math.ceil(length * bandSize);
-        double min, max;
-
+        Envelope.local().fill(a, offset, length, r, r, U, L);
+        // the gap value g can be matched anywhere in the band
         for (int i = 0; i < length; i++) {
-            min = g;
-            max = g;
-            final int startR = Math.max(0, i - r);
-            final int stopR = Math.min(length - 1, i + r);
-            for (int j = startR; j <= stopR; j++) {
-                final double value = a.value(j);
-                min = Math.min(min, value);
-                max = Math.max(max, value);
-            }
-            U[i] = max;
-            L[i] = min;
+            U[i] = Math.max(U[i], g);
+            L[i] = Math.min(L[i], g);
         }
     }
 
@@ -80,4 +73,13 @@ public class LbErp {
     public static double distance(final Instance a, final double[] U, final double[] L, final double cutOffValue) {
         return LbKeogh.distance(a, U, L, cutOffValue);
     }
+
+    public static double distance(final double[] a, final int offset, final int length, final double[] U, final double[] L) {
+        return LbKeogh.distance(a, offset, length, U, L);
+    }
+
+    public static double distance(final double[] a, final int offset, final int length, final double[] U, final double[] L,
+                                  final double cutOffValue) {
+        return LbKeogh.distance(a, offset, length, U, L, cutOffValue);
+    }
 }
@@ -0,0 +1,90 @@
+/* Copyright (C) 2018 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of FastEE.
+ FastEE is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ LbEnhanced is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
+package timeseriesweka.lowerBounds;
+
+import timeseriesweka.datasets.TimeSeriesDataset;
+import weka.core.Instance;
+
+/**
+ * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
+ *
+ * @author Chang Wei Tan, Francois Petitjean, Geoff Webb
+ *
+ * LB_Improved lower bound for DTW
+ * LB_Keogh of the first sequence against the envelope of the second one, plus LB_Keogh of the second sequence
+ * against the envelope of the projection of the first one on that envelope.
+ * See paper https://arxiv.org/abs/0811.3301
+ */
+public class LbImproved {
+    public static double distance(final Instance a, final Instance b, final double[] U, final double[] L, final int w) {
+        final int length = a.numAttributes() - 1;
+        return distance(TimeSeriesDataset.toArray(a), 0, TimeSeriesDataset.toArray(b), 0, length, U, L, w,
+                new double[length], new double[length], new double[length], Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * LB_Improved of two sequences of the same length
+     *
+     * @param a           values of the first sequence
+     * @param aOffset     index of the first value of the first sequence
+     * @param b           values of the second sequence
+     * @param bOffset     index of the first value of the second sequence
+     * @param length      length of the sequences
+     * @param U           upper envelope of the second sequence for window w
+     * @param L           lower envelope of the second sequence for window w
+     * @param w           warping window
+     * @param H           working memory for the projection of the first sequence, at least length long
+     * @param UH          working memory for the upper envelope of the projection
+     * @param LH          working memory for the lower envelope of the projection
+     * @param cutOffValue the lower bound is abandoned once it reaches this value
+     * @return lower bound, or Double.MAX_VALUE if it is at least cutOffValue
+     */
+    public static double distance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length,
+                                  final double[] U, final double[] L, final int w,
+                                  final double[] H, final double[] UH, final double[] LH, final double cutOffValue) {
+        double res = 0;
+        for (int i = 0; i < length; i++) {
+            final double c = a[aOffset + i];
+            if (c < L[i]) {
+                final double diff = L[i] - c;
+                res += diff * diff;
+                H[i] = L[i];
+            } else if (U[i] < c) {
+                final double diff = U[i] - c;
+                res += diff * diff;
+                H[i] = U[i];
+            } else {
+                H[i] = c;
+            }
+        }
+        if (res >= cutOffValue)
+            return Double.MAX_VALUE;
+
+        Envelope.local().fill(H, 0, length, w, w, UH, LH);
+        for (int i = 0; i < length; i++) {
+            final double c = b[bOffset + i];
+            if (c < LH[i]) {
+                final double diff = LH[i] - c;
+                res += diff * diff;
+                if (res >= cutOffValue)
+                    return Double.MAX_VALUE;
+            } else if (UH[i] < c) {
+                final double diff = UH[i] - c;
+                res += diff * diff;
+                if (res >= cutOffValue)
+                    return Double.MAX_VALUE;
+            }
+        }
+
+        return res;
+    }
+}
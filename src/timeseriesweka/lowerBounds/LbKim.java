@@ -11,6 +11,7 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.lowerBounds;
 
+import timeseriesweka.datasets.TimeSeriesDataset;
 import timeseriesweka.fastWWS.SequenceStatsCache;
 import weka.core.Instance;
 
@@ -19,23 +20,105 @@ import weka.core.Instance;
  *
  * @author Chang Wei Tan, Francois Petitjean, Geoff Webb
  *
- * Lower bound for DTW (LB Kim)
+ * Lower bound for DTW (LB Kim), also used by WDTW and MSM
  */
 public class LbKim {
+    // number of points from each end covered by the hierarchy
+    public static final int levels = 3;
+
+    /**
+     * Cost of matching two points
+     */
+    public enum Cost {
+        Squared, Absolute;
+
+        double of(final double a, final double b) {
+            final double diff = a - b;
+            return this == Squared ? diff * diff : Math.abs(diff);
+        }
+    }
+
+    /**
+     * Number of levels of the hierarchy that fit in a sequence without sharing a cell between its two ends
+     */
+    public static int nLevels(final int length) {
+        return Math.max(1, Math.min(levels, length / 2));
+    }
+
+    /**
+     * Whether a point is outside the levels of the hierarchy, so a cell of its row or column is not counted by them
+     */
+    public static boolean isInner(final int index, final int length) {
+        final int nLevels = nLevels(length);
+        return index >= nLevels && index < length - nLevels;
+    }
+
+    public static double distance(final Instance a, final Instance b, final Cost cost,
+                                  final double weight, final double cap, final double cutOffValue) {
+        return distance(TimeSeriesDataset.toArray(a), 0, TimeSeriesDataset.toArray(b), 0, a.numAttributes() - 1,
+                cost, weight, cap, cutOffValue);
+    }
+
+    /**
+     * Hierarchical LB_Kim.
+     * A warping path starts at the first points and ends at the last ones, and goes through a cell (i, j)
+     * with max(i, j) = k and one with max(n - 1 - i, n - 1 - j) = k for every k.
+     * Level k adds the cheapest of these cells at both ends, the first and last points, then the first 2
+     * and last 2, then the first 3 and last 3, abandoning as soon as the bound reaches cutOffValue.
+     * A cell costs at least weight times the cost of its points, or at least cap when it can be entered
+     * without matching its points, e.g. by a split or merge for MSM. The first cell is always a match.
+     *
+     * @return lower bound, or Double.MAX_VALUE once it reaches cutOffValue
+     */
+    public static double distance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length,
+                                  final Cost cost, final double weight, final double cap, final double cutOffValue) {
+        final int last = length - 1;
+        double res = weight * cost.of(a[aOffset], b[bOffset]);
+        if (length > 1) res += Math.min(cap, weight * cost.of(a[aOffset + last], b[bOffset + last]));
+        if (res >= cutOffValue)
+            return Double.MAX_VALUE;
+
+        final int nLevels = nLevels(length);
+        double first, end;
+        for (int k = 1; k < nLevels; k++) {
+            first = cost.of(a[aOffset + k], b[bOffset + k]);
+            end = cost.of(a[aOffset + last - k], b[bOffset + last - k]);
+            for (int i = 0; i < k; i++) {
+                first = Math.min(first, Math.min(cost.of(a[aOffset + k], b[bOffset + i]), cost.of(a[aOffset + i], b[bOffset + k])));
+                end = Math.min(end, Math.min(cost.of(a[aOffset + last - k], b[bOffset + last - i]), cost.of(a[aOffset + last - i], b[bOffset + last - k])));
+            }
+            res += Math.min(cap, weight * first) + Math.min(cap, weight * end);
+            if (res >= cutOffValue)
+                return Double.MAX_VALUE;
+        }
+
+        return res;
+    }
+
     public static double distance(final Instance query, final Instance reference,
                                   final SequenceStatsCache queryCache, final SequenceStatsCache referenceCache,
                                   final int indexQuery, final int indexReference) {
-        final double diffFirsts = query.value(0) - reference.value(0);
-        final double diffLasts = query.value(query.numAttributes() - 2) - reference.value(reference.numAttributes() - 2);
-        double minDist = diffFirsts * diffFirsts + diffLasts * diffLasts;
+        return distance(TimeSeriesDataset.toArray(query), 0, query.numAttributes() - 1,
+                TimeSeriesDataset.toArray(reference), 0, reference.numAttributes() - 1,
+                queryCache, referenceCache, indexQuery, indexReference);
+    }
 
-        if (!queryCache.isMinFirst(indexQuery) && !referenceCache.isMinFirst(indexReference) &&
-                !queryCache.isMinLast(indexQuery) && !referenceCache.isMinLast(indexReference)) {
+    /**
+     * Hierarchical LB_Kim for DTW, plus the differences of the minima and maxima when they are not
+     * within the levels of the hierarchy
+     */
+    public static double distance(final double[] query, final int queryOffset, final int queryLength,
+                                  final double[] reference, final int referenceOffset, final int referenceLength,
+                                  final SequenceStatsCache queryCache, final SequenceStatsCache referenceCache,
+                                  final int indexQuery, final int indexReference) {
+        double minDist = distance(query, queryOffset, reference, referenceOffset, queryLength,
+                Cost.Squared, 1, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+        if (isInner(queryCache.getIMin(indexQuery), queryLength) && isInner(referenceCache.getIMin(indexReference), referenceLength)) {
             final double diffMin = queryCache.getMin(indexQuery) - referenceCache.getMin(indexReference);
             minDist += diffMin * diffMin;
         }
-        if (!queryCache.isMaxFirst(indexQuery) && !referenceCache.isMaxFirst(indexReference) &&
-                !queryCache.isMaxLast(indexQuery) && !referenceCache.isMaxLast(indexReference)) {
+        if (isInner(queryCache.getIMax(indexQuery), queryLength) && isInner(referenceCache.getIMax(indexReference), referenceLength)) {
             final double diffMax = queryCache.getMax(indexQuery) - referenceCache.getMax(indexReference);
             minDist += diffMax * diffMax;
         }
@@ -45,21 +128,15 @@ public class LbKim {
 
     public static double distance(final Instance query, final Instance reference, final SequenceStatsCache cache,
                                   final int indexQuery, final int indexReference) {
-        final double diffFirsts = query.value(0) - reference.value(0);
-        final double diffLasts = query.value(query.numAttributes() - 2) - reference.value(reference.numAttributes() - 2);
-        double minDist = diffFirsts + diffLasts;
-
-        if (!cache.isMinFirst(indexQuery) && !cache.isMinFirst(indexReference) &&
-                !cache.isMinLast(indexQuery) && !cache.isMinLast(indexReference)) {
-            final double diffMin = cache.getMin(indexQuery) - cache.getMin(indexReference);
-            minDist += diffMin * diffMin;
-        }
-        if (!cache.isMaxFirst(indexQuery) && !cache.isMaxFirst(indexReference) &&
-                !cache.isMaxLast(indexQuery) && !cache.isMaxLast(indexReference)) {
-            final double diffMax = cache.getMax(indexQuery) - cache.getMax(indexReference);
-            minDist += diffMax * diffMax;
-        }
+        return distance(TimeSeriesDataset.toArray(query), 0, query.numAttributes() - 1,
+                TimeSeriesDataset.toArray(reference), 0, reference.numAttributes() - 1,
+                cache, indexQuery, indexReference);
+    }
 
-        return minDist;
+    public static double distance(final double[] query, final int queryOffset, final int queryLength,
+                                  final double[] reference, final int referenceOffset, final int referenceLength,
+                                  final SequenceStatsCache cache, final int indexQuery, final int indexReference) {
+        return distance(query, queryOffset, queryLength, reference, referenceOffset, referenceLength,
+                cache, cache, indexQuery, indexReference);
     }
 }
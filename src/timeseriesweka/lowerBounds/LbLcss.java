@@ -11,6 +11,7 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.lowerBounds;
 
+import timeseriesweka.datasets.TimeSeriesDataset;
 import weka.core.Instance;
 
 /**
@@ -23,51 +24,54 @@ import weka.core.Instance;
  */
 public class LbLcss {
     public static void fillUL(final Instance sequence, final double epsilon, final int delta, final double[] U, final double[] L) {
-        final int length = sequence.numAttributes() - 1;
-        double min, max;
+        fillUL(TimeSeriesDataset.toArray(sequence), 0, sequence.numAttributes() - 1, epsilon, delta, U, L);
+    }
 
+    public static void fillUL(final double[] sequence, final int offset, final int length, final double epsilon, final int delta,
+                              final double[] U, final double[] L) {
+        Envelope.local().fill(sequence, offset, length, delta, delta + 1, U, L);
         for (int i = 0; i < length; i++) {
-            min = Double.POSITIVE_INFINITY;
-            max = Double.NEGATIVE_INFINITY;
-            final int startR = (i - delta < 0) ? 0 : i - delta;
-            final int stopR = (i + delta + 1 > length) ? length : i + delta + 1;
-            for (int j = startR; j <= stopR; j++) {
-                final double value = sequence.value(j);
-                min = Math.min(min, value);
-                max = Math.max(max, value);
-            }
-            L[i] = min - epsilon;
-            U[i] = max + epsilon;
+            L[i] -= epsilon;
+            U[i] += epsilon;
         }
     }
 
     public static double distance(final Instance a, final double[] U, final double[] L) {
-        final int length = Math.min(U.length, a.numAttributes() - 1);
+        return distance(TimeSeriesDataset.toArray(a), 0, a.numAttributes() - 1, U, L);
+    }
+
+    public static double distance(final double[] a, final int offset, final int length, final double[] U, final double[] L) {
+        final int len = Math.min(U.length, length);
 
         double lcs = 0;
 
-        for (int i = 0; i < length; i++) {
-            if (a.value(i) <= U[i] && a.value(i) >= L[i]) {
+        for (int i = 0; i < len; i++) {
+            if (a[offset + i] <= U[i] && a[offset + i] >= L[i]) {
                 lcs++;
             }
         }
 
-        return 1 - lcs / length;
+        return 1 - lcs / len;
     }
 
     public static double distance(Instance a, double[] U, double[] L, double cutOffValue) {
-        final int length = Math.min(U.length, a.numAttributes() - 1);
-        final double ub = (1.0 - cutOffValue) * length;
+        return distance(TimeSeriesDataset.toArray(a), 0, a.numAttributes() - 1, U, L, cutOffValue);
+    }
+
+    public static double distance(final double[] a, final int offset, final int length, final double[] U, final double[] L,
+                                  final double cutOffValue) {
+        final int len = Math.min(U.length, length);
+        final double ub = (1.0 - cutOffValue) * len;
 
         double lcs = 0;
 
-        for (int i = 0; i < length; i++) {
-            if (a.value(i) <= U[i] && a.value(i) >= L[i]) {
+        for (int i = 0; i < len; i++) {
+            if (a[offset + i] <= U[i] && a[offset + i] >= L[i]) {
                 lcs++;
                 if (lcs <= ub) return 1;
             }
         }
 
-        return 1 - lcs / length;
+        return 1 - lcs / len;
     }
 }
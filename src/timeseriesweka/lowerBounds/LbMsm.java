@@ -11,6 +11,7 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.lowerBounds;
 
+import timeseriesweka.datasets.TimeSeriesDataset;
 import timeseriesweka.fastWWS.SequenceStatsCache;
 import weka.core.Instance;
 
@@ -23,17 +24,29 @@ import weka.core.Instance;
  */
 public class LbMsm {
     public static double distance(final Instance q, final Instance c, final double cc, final double qMax, final double qMin) {
-        final int len = q.numAttributes() - 1;
+        return distance(TimeSeriesDataset.toArray(q), 0, TimeSeriesDataset.toArray(c), 0, q.numAttributes() - 1,
+                cc, qMax, qMin);
+    }
 
-        double d = Math.abs(q.value(0) - c.value(0));
+    /**
+     * Every point of c after the first one is either moved onto a point of q, costing at least its distance to
+     * [qMin, qMax], or split or merged from the previous point of c, costing cc plus its distance to the previous
+     * point when it is further from q than the previous point.
+     * MSM is symmetric, so the bound can also be computed the other way round with the range of c.
+     *
+     * @return lower bound of the MSM distance between q and c
+     */
+    public static double distance(final double[] q, final int qOffset, final double[] c, final int cOffset, final int len,
+                                  final double cc, final double qMax, final double qMin) {
+        double d = Math.abs(q[qOffset] - c[cOffset]);
 
         for (int i = 1; i < len; i++) {
-            final double curr = c.value(i);
-            final double prev = c.value(i - 1);
-            if (prev >= curr && curr > qMax) {
-                d += Math.min(Math.abs(curr - qMax), cc);
-            } else if (prev <= curr && curr < qMin) {
-                d += Math.min(Math.abs(curr - qMin), cc);
+            final double curr = c[cOffset + i];
+            final double prev = c[cOffset + i - 1];
+            if (curr > qMax) {
+                d += Math.min(curr - qMax, cc + Math.max(0, curr - prev));
+            } else if (curr < qMin) {
+                d += Math.min(qMin - curr, cc + Math.max(0, prev - curr));
             }
         }
 
@@ -41,19 +54,23 @@ public class LbMsm {
     }
 
     public static double distance(final Instance q, final Instance c, final double cc, final double qMax, final double qMin, final double cutOffValue) {
-        final int len = q.numAttributes() - 1;
+        return distance(TimeSeriesDataset.toArray(q), 0, TimeSeriesDataset.toArray(c), 0, q.numAttributes() - 1,
+                cc, qMax, qMin, cutOffValue);
+    }
 
-        double d = Math.abs(q.value(0) - c.value(0));
+    public static double distance(final double[] q, final int qOffset, final double[] c, final int cOffset, final int len,
+                                  final double cc, final double qMax, final double qMin, final double cutOffValue) {
+        double d = Math.abs(q[qOffset] - c[cOffset]);
 
         for (int i = 1; i < len; i++) {
-            final double curr = c.value(i);
-            final double prev = c.value(i - 1);
-            if (prev >= curr && curr > qMax) {
-                d += Math.min(Math.abs(curr - qMax), cc);
+            final double curr = c[cOffset + i];
+            final double prev = c[cOffset + i - 1];
+            if (curr > qMax) {
+                d += Math.min(curr - qMax, cc + Math.max(0, curr - prev));
                 if (d >= cutOffValue)
                     return Double.MAX_VALUE;
-            } else if (prev <= curr && curr < qMin) {
-                d += Math.min(Math.abs(curr - qMin), cc);
+            } else if (curr < qMin) {
+                d += Math.min(qMin - curr, cc + Math.max(0, prev - curr));
                 if (d >= cutOffValue)
                     return Double.MAX_VALUE;
             }
@@ -65,8 +82,17 @@ public class LbMsm {
     public static double distance(final Instance query, final Instance reference,
                                   final SequenceStatsCache queryCache, final SequenceStatsCache referenceCache,
                                   final int indexQuery, final int indexReference) {
-        final double diffFirsts = Math.abs(query.value(0) - reference.value(0));
-        final double diffLasts = Math.abs(query.value(query.numAttributes() - 2) - reference.value(reference.numAttributes() - 2));
+        return distance(TimeSeriesDataset.toArray(query), 0, query.numAttributes() - 1,
+                TimeSeriesDataset.toArray(reference), 0, reference.numAttributes() - 1,
+                queryCache, referenceCache, indexQuery, indexReference);
+    }
+
+    public static double distance(final double[] query, final int queryOffset, final int queryLength,
+                                  final double[] reference, final int referenceOffset, final int referenceLength,
+                                  final SequenceStatsCache queryCache, final SequenceStatsCache referenceCache,
+                                  final int indexQuery, final int indexReference) {
+        final double diffFirsts = Math.abs(query[queryOffset] - reference[referenceOffset]);
+        final double diffLasts = Math.abs(query[queryOffset + queryLength - 1] - reference[referenceOffset + referenceLength - 1]);
         double minDist = diffFirsts + diffLasts;
 
         if (!queryCache.isMinFirst(indexQuery) && !referenceCache.isMinFirst(indexReference) &&
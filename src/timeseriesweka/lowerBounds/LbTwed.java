@@ -11,6 +11,7 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.lowerBounds;
 
+import timeseriesweka.datasets.TimeSeriesDataset;
 import weka.core.Instance;
 
 /**
@@ -21,19 +22,27 @@ import weka.core.Instance;
  * Lower bound for TWED
  */
 public class LbTwed {
+    // stiffness cost of a match outside the window of the windowed lower bound
+    public static final double farMatchCost = 0.1;
+
     public static double distance(final Instance q, final Instance c, final double qMax, final double qMin,
                                   final double nu, final double lambda) {
-        final int length = q.numAttributes() - 1;
-        final double q0 = q.value(0);
-        final double c0 = c.value(0);
+        return distance(TimeSeriesDataset.toArray(q), 0, TimeSeriesDataset.toArray(c), 0, q.numAttributes() - 1,
+                qMax, qMin, nu, lambda);
+    }
+
+    public static double distance(final double[] q, final int qOffset, final double[] c, final int cOffset, final int length,
+                                  final double qMax, final double qMin, final double nu, final double lambda) {
+        final double q0 = q[qOffset];
+        final double c0 = c[cOffset];
         double diff = q0 - c0;
         double res = Math.min(diff * diff,
                 Math.min(q0 * q0 + nu + lambda,
                         c0 * c0 + nu + lambda));
 
         for (int i = 1; i < length; i++) {
-            final double curr = c.value(i);
-            final double prev = c.value(i-1);
+            final double curr = c[cOffset + i];
+            final double prev = c[cOffset + i - 1];
             final double max = Math.max(qMax, prev);
             final double min = Math.min(qMin, prev);
             if (curr < min) {
@@ -50,9 +59,14 @@ public class LbTwed {
 
     public static double distance(final Instance q, final Instance c, final double qMax, final double qMin,
                                   final double nu, final double lambda, final double cutOffValue) {
-        final int length = q.numAttributes() - 1;
-        final double q0 = q.value(0);
-        final double c0 = c.value(0);
+        return distance(TimeSeriesDataset.toArray(q), 0, TimeSeriesDataset.toArray(c), 0, q.numAttributes() - 1,
+                qMax, qMin, nu, lambda, cutOffValue);
+    }
+
+    public static double distance(final double[] q, final int qOffset, final double[] c, final int cOffset, final int length,
+                                  final double qMax, final double qMin, final double nu, final double lambda, final double cutOffValue) {
+        final double q0 = q[qOffset];
+        final double c0 = c[cOffset];
         double diff = q0 - c0;
         double res = Math.min(diff * diff,
                 Math.min(q0 * q0 + nu + lambda,
@@ -61,8 +75,8 @@ public class LbTwed {
             return res;
 
         for (int i = 1; i < length; i++) {
-            final double curr = c.value(i);
-            final double prev = c.value(i-1);
+            final double curr = c[cOffset + i];
+            final double prev = c[cOffset + i - 1];
             final double max = Math.max(qMax, prev);
             final double min = Math.min(qMin, prev);
             if (curr < min) {
@@ -81,4 +95,65 @@ public class LbTwed {
         return res;
     }
 
+    /**
+     * Window of the windowed lower bound, the smallest one such that matching two points further apart
+     * costs at least farMatchCost in stiffness, nu * (w + 1)
+     */
+    public static int window(final int length, final double nu) {
+        return (int) Math.max(0, Math.min(length - 1, Math.ceil(farMatchCost / nu) - 1));
+    }
+
+    public static void fillUL(final double[] a, final int offset, final int length, final double nu, final double[] U, final double[] L) {
+        final int w = window(length, nu);
+        Envelope.local().fill(a, offset, length, w, w, U, L);
+    }
+
+    public static double distance(final Instance q, final Instance c, final double[] U, final double[] L,
+                                  final double qMax, final double qMin, final double nu, final double lambda, final double cutOffValue) {
+        return distance(TimeSeriesDataset.toArray(q), 0, TimeSeriesDataset.toArray(c), 0, q.numAttributes() - 1,
+                U, L, qMax, qMin, nu, lambda, cutOffValue);
+    }
+
+    /**
+     * Windowed lower bound, U and L being the envelope of q filled by fillUL.
+     * Every point of c after the first one is either deleted, costing at least its squared distance to the previous
+     * point, or matched to a point of q, costing its squared distance to that point plus nu times their distance in time.
+     * A match within the window costs at least the squared distance to the envelope,
+     * a match outside costs at least nu * (w + 1) plus the squared distance to [qMin, qMax].
+     *
+     * @return lower bound of the TWED distance between q and c, stopping once it reaches cutOffValue
+     */
+    public static double distance(final double[] q, final int qOffset, final double[] c, final int cOffset, final int length,
+                                  final double[] U, final double[] L, final double qMax, final double qMin,
+                                  final double nu, final double lambda, final double cutOffValue) {
+        final double farMatch = nu * (window(length, nu) + 1);
+        final double q0 = q[qOffset];
+        final double c0 = c[cOffset];
+        double diff = q0 - c0;
+        double res = Math.min(diff * diff,
+                Math.min(q0 * q0 + nu + lambda,
+                        c0 * c0 + nu + lambda));
+        if (res >= cutOffValue)
+            return res;
+
+        double local, global;
+        for (int i = 1; i < length; i++) {
+            final double curr = c[cOffset + i];
+            if (curr > U[i]) {
+                diff = curr - U[i];
+            } else if (curr < L[i]) {
+                diff = L[i] - curr;
+            } else continue;
+            local = diff * diff;
+            diff = curr > qMax ? curr - qMax : (curr < qMin ? qMin - curr : 0);
+            global = farMatch + diff * diff;
+            diff = curr - c[cOffset + i - 1];
+            res += Math.min(Math.min(local, global), diff * diff);
+            if (res >= cutOffValue)
+                return res;
+        }
+
+        return res;
+    }
+
 }
@@ -11,6 +11,7 @@
  along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
 package timeseriesweka.lowerBounds;
 
+import timeseriesweka.datasets.TimeSeriesDataset;
 import weka.core.Instance;
 
 /**
@@ -21,11 +22,19 @@ import weka.core.Instance;
  * Lower bound for WDTW
  */
 public class LbWdtw {
+    // number of windows of the multi-level lower bound, the last one covers the whole series
+    public static final int levels = 4;
+
     public static double distance(final Instance a, final double weight, final double max, final double min) {
+        return distance(TimeSeriesDataset.toArray(a), 0, a.numAttributes() - 1, weight, max, min);
+    }
+
+    public static double distance(final double[] a, final int offset, final int length,
+                                  final double weight, final double max, final double min) {
         double res = 0;
 
-        for (int i = 0; i < a.numAttributes() - 1; i++) {
-            final double c = a.value(i);
+        for (int i = 0; i < length; i++) {
+            final double c = a[offset + i];
             if (c < min) {
                 final double diff = min - c;
                 res += diff * diff;
@@ -39,11 +48,16 @@ public class LbWdtw {
     }
 
     public static double distance(final Instance a, final double weight, final double max, final double min, final double cutOffValue) {
+        return distance(TimeSeriesDataset.toArray(a), 0, a.numAttributes() - 1, weight, max, min, cutOffValue);
+    }
+
+    public static double distance(final double[] a, final int offset, final int length,
+                                  final double weight, final double max, final double min, final double cutOffValue) {
         double res = 0;
         double cutoff = cutOffValue/weight;
 
-        for (int i = 0; i < a.numAttributes() - 1; i++) {
-            final double c = a.value(i);
+        for (int i = 0; i < length; i++) {
+            final double c = a[offset + i];
             if (c < min) {
                 final double diff = min - c;
                 res += diff * diff;
@@ -58,4 +72,88 @@ public class LbWdtw {
         }
         return weight * res;
     }
+
+    /**
+     * Window of a level of the multi-level lower bound, from 1 to levels
+     */
+    public static int window(final int length, final int level) {
+        return (int) ((long) level * (length - 1) / levels);
+    }
+
+    /**
+     * Fill U[l] and L[l] with the envelope of the sequence for the window of level l + 1,
+     * the last level being the whole sequence, bounded by its min and max
+     */
+    public static void fillUL(final double[] a, final int offset, final int length, final double[][] U, final double[][] L) {
+        for (int l = 0; l < levels - 1; l++) {
+            final int w = window(length, l + 1);
+            Envelope.local().fill(a, offset, length, w, w, U[l], L[l]);
+        }
+    }
+
+    /**
+     * Fill weights[l] with the smallest weight of a match at a warping distance in (window(l), window(l + 1)],
+     * or the weight of the previous level if there is no such distance
+     */
+    public static void fillWeights(final double[] weightVector, final int length, final double[] weights) {
+        int start = 0;
+        for (int l = 0; l < levels; l++) {
+            final int end = window(length, l + 1);
+            double weight = l > 0 ? weights[l - 1] : weightVector[0];
+            if (start <= end) {
+                weight = weightVector[start];
+                for (int k = start + 1; k <= end; k++) weight = Math.min(weight, weightVector[k]);
+            }
+            weights[l] = weight;
+            start = Math.max(start, end + 1);
+        }
+    }
+
+    /**
+     * Lower bound of the cost of matching c at position i, the smallest over the levels of the weight of the level
+     * times the squared distance of c to the envelope of the level.
+     * This is LB_Keogh with a weight floor for each band of warping distances.
+     */
+    public static double distance(final double c, final int i, final double[][] U, final double[][] L,
+                                  final double max, final double min, final double[] weights) {
+        double res = Double.POSITIVE_INFINITY;
+        double upper, lower, diff;
+
+        for (int l = 0; l < levels; l++) {
+            upper = l < levels - 1 ? U[l][i] : max;
+            lower = l < levels - 1 ? L[l][i] : min;
+            if (c > upper) {
+                diff = c - upper;
+            } else if (c < lower) {
+                diff = lower - c;
+            } else return 0;
+            res = Math.min(res, weights[l] * diff * diff);
+        }
+
+        return res;
+    }
+
+    public static double distance(final Instance a, final double[][] U, final double[][] L,
+                                  final double max, final double min, final double[] weights, final double cutOffValue) {
+        return distance(TimeSeriesDataset.toArray(a), 0, a.numAttributes() - 1, U, L, max, min, weights, cutOffValue);
+    }
+
+    /**
+     * Multi-level lower bound, U, L and weights being filled by fillUL and fillWeights for the other sequence
+     * with min and max its smallest and largest values.
+     * Each point of a is matched at least once, so the bound is the sum of the lower bounds of its points.
+     *
+     * @return lower bound of the WDTW distance, or Double.MAX_VALUE once it reaches cutOffValue
+     */
+    public static double distance(final double[] a, final int offset, final int length, final double[][] U, final double[][] L,
+                                  final double max, final double min, final double[] weights, final double cutOffValue) {
+        double res = 0;
+
+        for (int i = 0; i < length; i++) {
+            res += distance(a[offset + i], i, U, L, max, min, weights);
+            if (res >= cutOffValue)
+                return Double.MAX_VALUE;
+        }
+        return res;
+    }
 }
@@ -0,0 +1,138 @@
+/* Copyright (C) 2018 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of FastEE.
+ FastEE is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ LbEnhanced is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with LbEnhanced.  If not, see <http://www.gnu.org/licenses/>. */
+package utilities;
+
+/**
+ * Code for the paper "FastEE: Fast Ensembles of Elastic Distances for Time Series Classification"
+ *
+ * @author Chang Wei Tan, Francois Petitjean, Geoff Webb
+ *
+ * Sort an array of indices by the keys they point to, without boxing
+ */
+public class IndexSort {
+    private static final int insertionSortThreshold = 32;
+    private static final int maxMovesPerIndex = 8;      // moves allowed in resort before a full sort
+
+    /**
+     * Stable sort of the first size indices by increasing key, in the order of Double.compare.
+     * Equal keys keep their relative order, as with Collections.sort.
+     *
+     * @param indices indices to sort
+     * @param size    number of indices to sort
+     * @param keys    key of each index
+     * @param buffer  working memory, at least size long
+     */
+    public static void sort(final int[] indices, final int size, final double[] keys, final int[] buffer) {
+        sort(indices, size, keys, buffer, false);
+    }
+
+    /**
+     * Stable sort of the first size indices by decreasing key, in the reverse order of Double.compare.
+     * Equal keys keep their relative order, as with Arrays.sort and a reversed comparator.
+     *
+     * @param indices indices to sort
+     * @param size    number of indices to sort
+     * @param keys    key of each index
+     * @param buffer  working memory, at least size long
+     */
+    public static void sortDescending(final int[] indices, final int size, final double[] keys, final int[] buffer) {
+        sort(indices, size, keys, buffer, true);
+    }
+
+    private static void sort(final int[] indices, final int size, final double[] keys, final int[] buffer, final boolean descending) {
+        if (size <= insertionSortThreshold) {
+            insertionSort(indices, 0, size, keys, descending);
+            return;
+        }
+        for (int from = 0; from < size; from += insertionSortThreshold) {
+            insertionSort(indices, from, Math.min(size, from + insertionSortThreshold), keys, descending);
+        }
+
+        // merge runs of doubling length, going back and forth between indices and buffer
+        int[] src = indices;
+        int[] dst = buffer;
+        int[] tmp;
+        for (int run = insertionSortThreshold; run < size; run *= 2) {
+            for (int from = 0; from < size; from += 2 * run) {
+                merge(src, dst, from, Math.min(size, from + run), Math.min(size, from + 2 * run), keys, descending);
+            }
+            tmp = src;
+            src = dst;
+            dst = tmp;
+        }
+        if (src != indices) {
+            System.arraycopy(src, 0, indices, 0, size);
+        }
+    }
+
+    /**
+     * Same result as sort, for indices that are already almost sorted.
+     * Runs an insertion sort, which only costs the number of indices out of place, and switches to sort
+     * once too many moves have been made. Insertion sort is stable, so the partly sorted indices still
+     * have the same order on ties and sort gives the same result as it would have from the start.
+     *
+     * @param indices indices to sort
+     * @param size    number of indices to sort
+     * @param keys    key of each index
+     * @param buffer  working memory, at least size long
+     */
+    public static void resort(final int[] indices, final int size, final double[] keys, final int[] buffer) {
+        long budget = (long) maxMovesPerIndex * size;
+        for (int i = 1; i < size; i++) {
+            final int index = indices[i];
+            final double key = keys[index];
+            int j = i - 1;
+            while (j >= 0 && Double.compare(keys[indices[j]], key) > 0) {
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            indices[j + 1] = index;
+            budget -= i - 1 - j;
+            if (budget < 0) {
+                sort(indices, size, keys, buffer);
+                return;
+            }
+        }
+    }
+
+    private static boolean after(final double a, final double b, final boolean descending) {
+        return descending ? Double.compare(a, b) < 0 : Double.compare(a, b) > 0;
+    }
+
+    private static void insertionSort(final int[] indices, final int from, final int to, final double[] keys, final boolean descending) {
+        for (int i = from + 1; i < to; i++) {
+            final int index = indices[i];
+            final double key = keys[index];
+            int j = i - 1;
+            while (j >= from && after(keys[indices[j]], key, descending)) {
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            indices[j + 1] = index;
+        }
+    }
+
+    private static void merge(final int[] src, final int[] dst, final int from, final int mid, final int to,
+                              final double[] keys, final boolean descending) {
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            // take from the left run on ties to stay stable
+            if (after(keys[src[i]], keys[src[j]], descending)) {
+                dst[k++] = src[j++];
+            } else {
+                dst[k++] = src[i++];
+            }
+        }
+        while (i < mid) dst[k++] = src[i++];
+        while (j < to) dst[k++] = src[j++];
+    }
+}